@@ -0,0 +1,87 @@
+package io.github.przybandrzej.yeelight;
+
+import io.github.przybandrzej.yeelight.codec.CommandEncoder;
+import io.github.przybandrzej.yeelight.exception.OutOfRangeException;
+import io.github.przybandrzej.yeelight.utils.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of the frames written by {@code sendCommand}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CommandEncodingBenchmark {
+
+  @Param({"set_bright", "set_rgb", "set_name", "start_cf"})
+  public String method;
+
+  private final GsonCodec gson = new GsonCodec();
+  private final CommandEncoder encoder = new CommandEncoder();
+  private Command command;
+  private Command[] batch;
+
+  @Setup
+  public void setup() throws OutOfRangeException {
+    switch(method) {
+      case "set_bright":
+        command = new Command(method, 50, YeelightEffect.SMOOTH.getValue(), 500);
+        break;
+      case "set_rgb":
+        command = new Command(method, Utils.clampAndComputeRGBValue(255, 128, 0), YeelightEffect.SUDDEN.getValue(), 0);
+        break;
+      case "set_name":
+        command = new Command(method, Utils.encodeName("Living room lamp"));
+        break;
+      default:
+        command = ColorFlow.builder()
+            .rgb(1000, 0xff0000, 100)
+            .colorTemperature(1000, 2700, 80)
+            .sleep(500)
+            .repeat(0)
+            .action(FlowAction.RECOVER)
+            .build()
+            .toCommand(method);
+    }
+    command.setId(1);
+    batch = new Command[16];
+    Arrays.fill(batch, command);
+  }
+
+  @Benchmark
+  public byte[] gson() {
+    return gson.encode(command).getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public ByteBuffer codec() {
+    return encoder.encode(command);
+  }
+
+  @Benchmark
+  public ByteBuffer codecBatch() {
+    encoder.reset();
+    for(Command each : batch) {
+      encoder.append(each);
+    }
+    return encoder.buffer();
+  }
+}
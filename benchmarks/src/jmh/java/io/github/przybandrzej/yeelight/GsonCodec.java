@@ -0,0 +1,104 @@
+package io.github.przybandrzej.yeelight;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import io.github.przybandrzej.yeelight.utils.Utils;
+
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Gson based encoding and decoding {@link DeviceControl} used before {@link io.github.przybandrzej.yeelight.codec},
+ * kept as the baseline of the benchmarks. Numbers are parsed as doubles everywhere, so every message of the suites
+ * decodes.
+ */
+@SuppressWarnings("unchecked")
+final class GsonCodec {
+
+  private final Gson GSON = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().disableHtmlEscaping().create();
+  private final Type MAP_TYPE_TOKEN = new TypeToken<Map<String, Object>>() {
+  }.getType();
+
+  String encode(Command command) {
+    return GSON.toJson(command) + "\r\n";
+  }
+
+  Map<String, Object> parse(String data) {
+    return GSON.fromJson(data, MAP_TYPE_TOKEN);
+  }
+
+  /**
+   * @param data   Received line
+   * @param device Device the notifications are applied to
+   * @return Decoded command result, null for a notification
+   */
+  CommandResult decode(String data, Device device) {
+    Map<String, Object> result = parse(data);
+    Object idObj = result.get("id");
+    if(idObj == null) {
+      processNotification(result, device);
+      return null;
+    }
+    CommandResult commandResult = new CommandResult();
+    Object err = result.get("error");
+    if(err != null) {
+      CommandResult.Error error = new CommandResult.Error();
+      error.setCode((int) Double.parseDouble(((Map<String, Object>) err).get("code").toString()));
+      error.setMessage(((Map<String, Object>) err).get("message").toString());
+      commandResult.setError(error);
+      commandResult.setOk(false);
+      return commandResult;
+    }
+    List<Object> params = (List<Object>) result.get("result");
+    if(params.get(0) instanceof String && params.get(0).equals("ok")) {
+      commandResult.setOk(true);
+      return commandResult;
+    }
+    if(params.get(0) instanceof Map) {
+      Map<String, Object> cronRes = (Map<String, Object>) params.get(0);
+      CommandResult.CronSettings cron = new CommandResult.CronSettings();
+      cron.setType((int) Double.parseDouble(cronRes.get("type").toString()));
+      cron.setDelay((int) Double.parseDouble(cronRes.get("delay").toString()));
+      cron.setMix((int) Double.parseDouble(cronRes.get("mix").toString()));
+      commandResult.setCronSettings(cron);
+      commandResult.setOk(true);
+      return commandResult;
+    }
+    commandResult.setOk(true);
+    commandResult.setParams(params.toArray());
+    return commandResult;
+  }
+
+  private void processNotification(Map<String, Object> result, Device device) {
+    String method = result.get("method").toString();
+    if(!method.equals("props")) {
+      return;
+    }
+    setProps((Map<String, Object>) result.get("params"), device);
+  }
+
+  void setProps(Map<String, Object> props, Device device) {
+    for(Map.Entry<String, Object> property : props.entrySet()) {
+      String prop = property.getKey();
+      if(prop.equals("name")) {
+        device.setName(Utils.decodeName(property.getValue().toString()));
+      } else if(prop.equals("power")) {
+        device.setPower(property.getValue().toString().equals("on"));
+      } else if(prop.equals("bright")) {
+        device.setBrightness((int) Double.parseDouble(property.getValue().toString()));
+      } else if(prop.equals("ct")) {
+        device.setColorTemperature((int) Double.parseDouble(property.getValue().toString()));
+      } else if(prop.equals("rgb")) {
+        device.setRgb((int) Double.parseDouble(property.getValue().toString()));
+      } else if(prop.equals("hue")) {
+        device.setHue((int) Double.parseDouble(property.getValue().toString()));
+      } else if(prop.equals("sat")) {
+        device.setSaturation((int) Double.parseDouble(property.getValue().toString()));
+      } else if(prop.equals("color_mode")) {
+        device.setColorMode(ColorMode.valueOf((int) Double.parseDouble(property.getValue().toString())));
+      }
+    }
+  }
+}
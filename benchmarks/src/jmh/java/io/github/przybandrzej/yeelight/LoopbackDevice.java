@@ -0,0 +1,106 @@
+package io.github.przybandrzej.yeelight;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal in-process device answering every command with {@code ["ok"]}, so a round trip measures the SDK and the
+ * loopback interface only
+ */
+final class LoopbackDevice implements Closeable {
+
+  private static final byte[] ID = "{\"id\":".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] OK = ",\"result\":[\"ok\"]}\r\n".getBytes(StandardCharsets.US_ASCII);
+
+  private final ServerSocket serverSocket;
+
+  LoopbackDevice() throws IOException {
+    this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    Thread acceptor = new Thread(this::accept, "loopback-device");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * @return Device to connect to
+   */
+  Device getDevice() {
+    Device device = new Device();
+    device.setId("0x" + Integer.toHexString(serverSocket.getLocalPort()));
+    device.setModel(Model.COLOR);
+    device.setLocation("yeelight://127.0.0.1:" + serverSocket.getLocalPort());
+    return device;
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+  }
+
+  private void accept() {
+    try {
+      while(!serverSocket.isClosed()) {
+        Socket socket = serverSocket.accept();
+        socket.setTcpNoDelay(true);
+        Thread thread = new Thread(() -> serve(socket), "loopback-device-connection");
+        thread.setDaemon(true);
+        thread.start();
+      }
+    } catch(IOException ignored) {
+      // closed
+    }
+  }
+
+  private void serve(Socket socket) {
+    try(Socket ignored = socket) {
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      OutputStream out = socket.getOutputStream();
+      byte[] line = new byte[1024];
+      byte[] response = new byte[64];
+      int length = 0;
+      int b;
+      while((b = in.read()) >= 0) {
+        if(b != '\n') {
+          if(length < line.length) {
+            line[length++] = (byte) b;
+          }
+          continue;
+        }
+        int responseLength = respond(line, length, response);
+        length = 0;
+        if(responseLength > 0) {
+          out.write(response, 0, responseLength);
+        }
+      }
+    } catch(IOException ignored) {
+      // connection closed by the client
+    }
+  }
+
+  /**
+   * Copy the id of the command into the response
+   *
+   * @return Length of the response, 0 if the line carries no id
+   */
+  private int respond(byte[] line, int length, byte[] response) {
+    for(int i = 0; i < ID.length; i++) {
+      if(i >= length || line[i] != ID[i]) {
+        return 0;
+      }
+    }
+    System.arraycopy(ID, 0, response, 0, ID.length);
+    int pos = ID.length;
+    for(int i = ID.length; i < length && line[i] >= '0' && line[i] <= '9'; i++) {
+      response[pos++] = line[i];
+    }
+    System.arraycopy(OK, 0, response, pos, OK.length);
+    return pos + OK.length;
+  }
+}
@@ -0,0 +1,48 @@
+package io.github.przybandrzej.yeelight;
+
+import io.github.przybandrzej.yeelight.utils.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base64 coding of the device names carried by {@code set_name}, search responses and notifications
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class NameCodecBenchmark {
+
+  @Param({"Lamp", "Living room lamp near the window", "Łazienka – lustro"})
+  public String name;
+
+  private String encoded;
+
+  @Setup
+  public void setup() {
+    encoded = Utils.encodeName(name);
+  }
+
+  @Benchmark
+  public String encodeName() {
+    return Utils.encodeName(name);
+  }
+
+  @Benchmark
+  public String decodeName() {
+    return Utils.decodeName(encoded);
+  }
+}
@@ -0,0 +1,100 @@
+package io.github.przybandrzej.yeelight;
+
+import io.github.przybandrzej.yeelight.codec.MessageDecoder;
+import io.github.przybandrzej.yeelight.exception.BadResponseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of the lines read by {@code listen()}: command responses and "props" notifications, applied to the
+ * device the way the connection does it
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ResponseDecodingBenchmark {
+
+  @Param({"ok", "get_prop", "error", "cron", "props"})
+  public String message;
+
+  private final GsonCodec gson = new GsonCodec();
+  private final MessageDecoder decoder = new MessageDecoder();
+  private Device device;
+  private StateApplier applier;
+  private String line;
+  private byte[] bytes;
+  private Map<String, Object> props;
+
+  @Setup
+  public void setup() throws BadResponseException {
+    switch(message) {
+      case "ok":
+        line = "{\"id\":1,\"result\":[\"ok\"]}";
+        break;
+      case "get_prop":
+        line = "{\"id\":2,\"result\":[\"on\",\"50\",\"4000\",\"16711680\",\"100\",\"35\",\"2\"]}";
+        break;
+      case "error":
+        line = "{\"id\":3,\"error\":{\"code\":-1,\"message\":\"unsupported method\"}}";
+        break;
+      case "cron":
+        line = "{\"id\":4,\"result\":[{\"type\":0,\"delay\":15,\"mix\":0}]}";
+        break;
+      default:
+        line = "{\"method\":\"props\",\"params\":{\"power\":\"on\",\"bright\":42,\"ct\":4000,\"color_mode\":2}}";
+    }
+    bytes = line.getBytes(StandardCharsets.UTF_8);
+    device = new Device();
+    applier = new StateApplier(device);
+    props = gson.parse("{\"power\":\"on\",\"bright\":42,\"ct\":4000,\"color_mode\":2}");
+  }
+
+  @Benchmark
+  public CommandResult gson() {
+    return gson.decode(line, device);
+  }
+
+  @Benchmark
+  public CommandResult codec() throws BadResponseException {
+    decoder.decode(bytes, 0, bytes.length, applier);
+    return applier.getResult();
+  }
+
+  /**
+   * Applying an already parsed notification with the {@code setProps} if/else chain
+   */
+  @Benchmark
+  public Device setPropsGson() {
+    gson.setProps(props, device);
+    return device;
+  }
+
+  /**
+   * Applying an already decoded notification to the device and its state store
+   */
+  @Benchmark
+  public DeviceState setPropsCodec() {
+    applier.onProperty("power", "on");
+    applier.onProperty("bright", 42);
+    applier.onProperty("ct", 4000);
+    applier.onProperty("color_mode", 2);
+    applier.onNotification();
+    return applier.getStateStore().getState();
+  }
+}
@@ -0,0 +1,72 @@
+package io.github.przybandrzej.yeelight;
+
+import io.github.przybandrzej.yeelight.exception.OutOfRangeException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command round trips through {@link DeviceControl} and its engine to a {@link LoopbackDevice}: encoding, the write,
+ * the device answering, decoding and completing the future. The engine returns quota tokens immediately, otherwise
+ * the benchmark would measure the 60 commands per minute quota.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RoundTripBenchmark {
+
+  private static final int PIPELINED = 16;
+
+  private LoopbackDevice loopback;
+  private ConnectionEngine engine;
+  private DeviceControl control;
+
+  @Setup
+  public void setup() throws IOException {
+    loopback = new LoopbackDevice();
+    engine = new ConnectionEngine(1, Runnable::run, 0);
+    control = new DeviceControl(loopback.getDevice(), engine);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    control.disconnect();
+    engine.close();
+    loopback.close();
+  }
+
+  @Benchmark
+  public CommandResult roundTrip() throws IOException, OutOfRangeException {
+    return control.setBrightnessAsync(50).join();
+  }
+
+  /**
+   * Several commands in flight on the connection at once
+   */
+  @Benchmark
+  @OperationsPerInvocation(PIPELINED)
+  public CommandResult pipelined() throws IOException, OutOfRangeException {
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[PIPELINED];
+    for(int i = 0; i < PIPELINED; i++) {
+      futures[i] = control.setBrightnessAsync(i + 1);
+    }
+    CompletableFuture.allOf(futures).join();
+    return (CommandResult) futures[PIPELINED - 1].join();
+  }
+}
@@ -0,0 +1,92 @@
+package io.github.przybandrzej.yeelight;
+
+import io.github.przybandrzej.yeelight.exception.BadResponseException;
+import io.github.przybandrzej.yeelight.exception.UnknownPacketException;
+import io.github.przybandrzej.yeelight.utils.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of the SSDP search responses received by {@link Discover}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SearchResponseBenchmark {
+
+  private static final String RESPONSE = "HTTP/1.1 200 OK\r\n" +
+      "Cache-Control: max-age=3600\r\n" +
+      "Date: \r\n" +
+      "Ext: \r\n" +
+      "Location: yeelight://192.168.1.239:55443\r\n" +
+      "Server: POSIX UPnP/1.0 YGLC/1\r\n" +
+      "id: 0x000000000015243f\r\n" +
+      "model: colorb\r\n" +
+      "fw_ver: 18\r\n" +
+      "support: get_prop set_default set_power toggle set_bright start_cf stop_cf set_scene cron_add cron_get " +
+      "cron_del set_ct_abx set_rgb set_hsv set_adjust set_music set_name\r\n" +
+      "power: on\r\n" +
+      "bright: 100\r\n" +
+      "color_mode: 2\r\n" +
+      "ct: 4000\r\n" +
+      "rgb: 16711680\r\n" +
+      "hue: 100\r\n" +
+      "sat: 35\r\n" +
+      "name: " + Utils.encodeName("Living room lamp") + "\r\n";
+
+  private String response;
+  private byte[] packet;
+
+  @Setup
+  public void setup() {
+    response = RESPONSE;
+    packet = RESPONSE.getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * The previous mapping: splitting the response into lines and reading each header at a fixed line
+   */
+  @Benchmark
+  public Device split() {
+    String[] lines = response.split("\r\n");
+    Device device = new Device();
+    device.setId(lines[6].substring(4));
+    device.setLocation(lines[4].substring(10));
+    device.setBrightness(Integer.parseInt(lines[11].substring(8)));
+    device.setColorMode(ColorMode.valueOf(Integer.parseInt(lines[12].substring(12))));
+    device.setColorTemperature(Integer.parseInt(lines[13].substring(4)));
+    device.setHue(Integer.parseInt(lines[15].substring(5)));
+    device.setModel(Model.get(lines[7].substring(7)));
+    device.setName(Utils.decodeName(lines[17].substring(6)));
+    device.setPower(lines[10].substring(7).equals("on"));
+    device.setRgb(Integer.parseInt(lines[14].substring(5)));
+    device.setFirmwareVersion(Integer.parseInt(lines[8].substring(8)));
+    device.setSaturation(Integer.parseInt(lines[16].substring(5)));
+    device.setSupport(lines[9].substring(9).split(" "));
+    return device;
+  }
+
+  @Benchmark
+  public Device string() throws UnknownPacketException, BadResponseException {
+    return Discover.mapSearchResponse(response);
+  }
+
+  @Benchmark
+  public Device bytes() throws UnknownPacketException, BadResponseException {
+    return Discover.mapSearchResponse(packet, 0, packet.length);
+  }
+}
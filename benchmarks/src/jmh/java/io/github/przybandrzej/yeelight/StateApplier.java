@@ -0,0 +1,59 @@
+package io.github.przybandrzej.yeelight;
+
+import io.github.przybandrzej.yeelight.codec.MessageDecoder;
+
+/**
+ * Applies decoded messages the way the receiver of {@link DeviceControl} does, without a connection behind it
+ */
+final class StateApplier implements MessageDecoder.Handler {
+
+  private final Device device;
+  private final DeviceStateStore stateStore;
+  private long changed;
+  private CommandResult result;
+
+  StateApplier(Device device) {
+    this.device = device;
+    this.stateStore = new DeviceStateStore(device, Runnable::run);
+  }
+
+  DeviceStateStore getStateStore() {
+    return stateStore;
+  }
+
+  /**
+   * @return Last decoded command result
+   */
+  CommandResult getResult() {
+    return result;
+  }
+
+  @Override
+  public void onResult(int id, CommandResult result) {
+    this.result = result;
+  }
+
+  @Override
+  public void onProperty(String name, int value) {
+    DeviceProperty property = DeviceProperty.get(name);
+    if(property != null) {
+      device.apply(property, value);
+      changed |= 1L << property.ordinal();
+    }
+  }
+
+  @Override
+  public void onProperty(String name, String value) {
+    DeviceProperty property = DeviceProperty.get(name);
+    if(property != null) {
+      device.apply(property, value);
+      changed |= 1L << property.ordinal();
+    }
+  }
+
+  @Override
+  public void onNotification() {
+    stateStore.update(device, changed);
+    changed = 0;
+  }
+}
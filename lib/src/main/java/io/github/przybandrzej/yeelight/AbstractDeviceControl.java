@@ -0,0 +1,675 @@
+package io.github.przybandrzej.yeelight;
+
+import io.github.przybandrzej.yeelight.exception.ColorModeException;
+import io.github.przybandrzej.yeelight.exception.DeviceMonoOnlyException;
+import io.github.przybandrzej.yeelight.exception.OutOfRangeException;
+import io.github.przybandrzej.yeelight.exception.QuotaExceededException;
+import io.github.przybandrzej.yeelight.exception.UnsupportedMethodException;
+import io.github.przybandrzej.yeelight.utils.Utils;
+import org.reactivestreams.Publisher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Typed Yeelight commands shared by every way of controlling a device. Each command is available as an
+ * int-returning method, whose result is collected with {@link #awaitAnswer(int)}, and as an asynchronous variant
+ * returning a {@link CompletableFuture}.
+ * <p>
+ * Commands whose method the device has not announced in its "support" header are rejected without being sent, so they
+ * cost neither a round trip nor quota. Their future fails with a
+ * {@link io.github.przybandrzej.yeelight.exception.UnsupportedMethodException}:
+ * {@link io.github.przybandrzej.yeelight.exception.DeviceMonoOnlyException} for color methods sent to a device without
+ * any, {@link io.github.przybandrzej.yeelight.exception.ColorModeException} for color methods the device lacks among
+ * others it has.
+ */
+public abstract class AbstractDeviceControl {
+  static final int BRIGHT_MIN = 1;
+  static final int BRIGHT_MAX = 100;
+  private static final int HUE_MIN = 0;
+  private static final int HUE_MAX = 359;
+  private static final int SATURATION_MIN = 1;
+  private static final int SATURATION_MAX = 100;
+  private static final int NAME_MAX_BYES = 64;
+  static final int COLOR_TEMPERATURE_MIN = 1700;
+  static final int COLOR_TEMPERATURE_MAX = 6500;
+  static final int RGB_MIN = 1;
+  static final int RGB_MAX = 16777215;
+  private static final int PERCENTAGE_MIN = -100;
+  private static final int PERCENTAGE_MAX = 100;
+  private static final long DEFAULT_COMMAND_TIMEOUT = 5000;
+  private static final int MAX_RETAINED_RESULTS = 1024;
+
+  private YeelightEffect effect = YeelightEffect.SUDDEN;
+  private int duration = 0;
+  private long commandTimeout = DEFAULT_COMMAND_TIMEOUT;
+  private volatile CommandCoalescer coalescer = null;
+  /**
+   * Results of the commands sent with the int-returning methods, kept until they are collected with
+   * {@link #awaitAnswer(int)}. Only the most recent ones are kept, so results nobody asks for do not pile up.
+   */
+  private final Map<Integer, CompletableFuture<CommandResult>> retained = Collections.synchronizedMap(
+      new LinkedHashMap<Integer, CompletableFuture<CommandResult>>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, CompletableFuture<CommandResult>> eldest) {
+          return size() > MAX_RETAINED_RESULTS;
+        }
+      });
+
+  AbstractDeviceControl() {
+  }
+
+  public abstract Device getDevice();
+
+  /**
+   * @return Number of commands that can be sent right now without exceeding the connection or device quota
+   */
+  public abstract int getRemainingQuota();
+
+  /**
+   * @return Number of commands waiting for quota
+   */
+  public abstract int getQueuedCommands();
+
+  /**
+   * @return Number of commands sent and still waiting for their response
+   */
+  public abstract int getPendingRequests();
+
+  /**
+   * @return Number of commands that got no response within their timeout
+   */
+  public abstract long getTimeouts();
+
+  /**
+   * @return Number of responses that arrived for no pending command, e.g. after the command timed out
+   */
+  public abstract long getOrphanedResponses();
+
+  /**
+   * @return Store of the versioned state snapshots of the device, for subscribing to the changes of single properties
+   */
+  public abstract DeviceStateStore getStateStore();
+
+  /**
+   * @return Latest state snapshot of the device
+   */
+  public DeviceState getState() {
+    return getStateStore().getState();
+  }
+
+  public abstract void onDeviceStateChange(Runnable r);
+
+  /**
+   * Setter for how long the property values are trusted. Within this time {@link #fetchProperties(DeviceProperty...)}
+   * does not ask the device again for a value it has already received, as an answer or as a notification.
+   *
+   * @param ttl  Time to live of the values (&lt;= 0 disables the cache)
+   * @param unit Unit of the time to live
+   */
+  public abstract void propertyCacheTtl(long ttl, TimeUnit unit);
+
+  /**
+   * Query properties with a single "get_prop" command and map them onto the {@link Device} and the state store.
+   * Values still fresh in the cache are not queried; properties the device does not support are left as they were.
+   *
+   * @param properties Properties to query, all of them if none is given
+   * @return Future of the updated device, failed with {@link io.github.przybandrzej.yeelight.exception.BadResponseException}
+   * if the device has rejected the query
+   * @throws IOException if the command could not be written
+   */
+  public abstract CompletableFuture<Device> fetchPropertiesAsync(DeviceProperty... properties) throws IOException;
+
+  /**
+   * Blocking variant of {@link #fetchPropertiesAsync(DeviceProperty...)}
+   *
+   * @param properties Properties to query, all of them if none is given
+   * @return Updated device
+   * @throws IOException if the command could not be written
+   * @throws java.util.concurrent.CompletionException if the command timed out or was rejected
+   */
+  public Device fetchProperties(DeviceProperty... properties) throws IOException {
+    return fetchPropertiesAsync(properties).join();
+  }
+
+  /**
+   * Create a publisher of the property changes of the device. Each subscriber gets its own buffer, so a slow
+   * subscriber never holds up the connection. With {@link OverflowPolicy#CONFLATE} only the latest change of each
+   * property is kept. The publisher completes when the device is disconnected and fails when the connection is lost.
+   *
+   * @param bufferSize Number of changes buffered per subscriber
+   * @param policy     What to do with a change when a buffer is full
+   * @return Publisher of the changes, to be created once per consumer
+   */
+  public abstract Publisher<PropertyChange<?>> notifications(int bufferSize, OverflowPolicy policy);
+
+  /**
+   * Create a publisher of the results of every answered command, see {@link #notifications(int, OverflowPolicy)}.
+   * With {@link OverflowPolicy#CONFLATE} only the latest result is kept.
+   *
+   * @param bufferSize Number of results buffered per subscriber
+   * @param policy     What to do with a result when a buffer is full
+   * @return Publisher of the results, to be created once per consumer
+   */
+  public abstract Publisher<CommandResult> results(int bufferSize, OverflowPolicy policy);
+
+  /**
+   * Re-establish the connection whenever it is lost, see {@link ReconnectPolicy}. Commands in flight when the
+   * connection is lost fail, since it is unknown whether the device has applied them; commands sent or queued while
+   * it is down are sent once it is back.
+   *
+   * @param policy Delays and limits of the reconnection, null to disable it
+   */
+  public void autoReconnect(ReconnectPolicy policy) {
+    autoReconnect(policy, null);
+  }
+
+  /**
+   * Re-establish the connection whenever it is lost, looking the device up in the discovery registry first in case
+   * its IP has changed
+   *
+   * @param policy    Delays and limits of the reconnection, null to disable it
+   * @param discovery Running discovery service, null to always reconnect to the last known location
+   */
+  public abstract void autoReconnect(ReconnectPolicy policy, DiscoveryService discovery);
+
+  public abstract void disconnect() throws IOException;
+
+  /**
+   * Setter for Yeelight device effect
+   *
+   * @param effect Effect to set (if null, 'sudden' is chosen)
+   */
+  public void effect(YeelightEffect effect) {
+    this.effect = effect == null ? YeelightEffect.SUDDEN : effect;
+  }
+
+  /**
+   * Setter for Yeelight device effect duration
+   *
+   * @param duration Duration to set (&gt;= 0)
+   */
+  public void duration(int duration) {
+    this.duration = Math.max(0, duration);
+  }
+
+  /**
+   * Setter for the default time to wait for a command response
+   *
+   * @param commandTimeout Timeout in milliseconds (&lt;= 0 means no timeout)
+   */
+  public void commandTimeout(long commandTimeout) {
+    this.commandTimeout = Math.max(0, commandTimeout);
+  }
+
+  public int adjustBrightness(int percentage) throws OutOfRangeException, IOException {
+    return submit(adjustBrightnessCommand(percentage));
+  }
+
+  public CompletableFuture<CommandResult> adjustBrightnessAsync(int percentage) throws OutOfRangeException, IOException {
+    return sendCommandAsync(adjustBrightnessCommand(percentage));
+  }
+
+  public int adjustColorTemperature(int percentage) throws OutOfRangeException, IOException {
+    return submit(adjustColorTemperatureCommand(percentage));
+  }
+
+  public CompletableFuture<CommandResult> adjustColorTemperatureAsync(int percentage) throws OutOfRangeException, IOException {
+    return sendCommandAsync(adjustColorTemperatureCommand(percentage));
+  }
+
+  public int adjustColor(int percentage) throws OutOfRangeException, IOException {
+    return submit(adjustColorCommand(percentage));
+  }
+
+  public CompletableFuture<CommandResult> adjustColorAsync(int percentage) throws OutOfRangeException, IOException {
+    return sendCommandAsync(adjustColorCommand(percentage));
+  }
+
+  public int toggle() throws IOException {
+    return submit(new Command("toggle"));
+  }
+
+  public CompletableFuture<CommandResult> toggleAsync() throws IOException {
+    return sendCommandAsync(new Command("toggle"));
+  }
+
+  public int setBrightness(int brightness) throws OutOfRangeException, IOException {
+    return submit(brightnessCommand(brightness));
+  }
+
+  public CompletableFuture<CommandResult> setBrightnessAsync(int brightness) throws OutOfRangeException, IOException {
+    return sendCommandAsync(brightnessCommand(brightness));
+  }
+
+  public int setPower(boolean power) throws IOException {
+    return submit(powerCommand(power));
+  }
+
+  public CompletableFuture<CommandResult> setPowerAsync(boolean power) throws IOException {
+    return sendCommandAsync(powerCommand(power));
+  }
+
+  public int setColorTemperature(int value) throws IOException, OutOfRangeException {
+    return submit(colorTemperatureCommand(value));
+  }
+
+  public CompletableFuture<CommandResult> setColorTemperatureAsync(int value) throws IOException, OutOfRangeException {
+    return sendCommandAsync(colorTemperatureCommand(value));
+  }
+
+  public int setRgb(int r, int g, int b) throws OutOfRangeException, IOException {
+    return submit(rgbCommand(r, g, b));
+  }
+
+  public CompletableFuture<CommandResult> setRgbAsync(int r, int g, int b) throws OutOfRangeException, IOException {
+    return sendCommandAsync(rgbCommand(r, g, b));
+  }
+
+  public int setHue(int hue) throws OutOfRangeException, IOException {
+    return submit(hueCommand(hue));
+  }
+
+  public CompletableFuture<CommandResult> setHueAsync(int hue) throws OutOfRangeException, IOException {
+    return sendCommandAsync(hueCommand(hue));
+  }
+
+  public int setSaturation(int sat) throws OutOfRangeException, IOException {
+    return submit(saturationCommand(sat));
+  }
+
+  public CompletableFuture<CommandResult> setSaturationAsync(int sat) throws OutOfRangeException, IOException {
+    return sendCommandAsync(saturationCommand(sat));
+  }
+
+  public int setHsv(int hue, int saturation) throws OutOfRangeException, IOException {
+    return submit(hsvCommand(hue, saturation));
+  }
+
+  public CompletableFuture<CommandResult> setHsvAsync(int hue, int saturation) throws OutOfRangeException, IOException {
+    return sendCommandAsync(hsvCommand(hue, saturation));
+  }
+
+  public int setName(String name) throws OutOfRangeException, IOException {
+    return submit(nameCommand(name));
+  }
+
+  public CompletableFuture<CommandResult> setNameAsync(String name) throws OutOfRangeException, IOException {
+    return sendCommandAsync(nameCommand(name));
+  }
+
+  /**
+   * Start a color flow, which the device runs by itself
+   *
+   * @param flow Flow to run
+   * @return ID of the command
+   * @throws IOException if the command could not be written
+   */
+  public int startColorFlow(ColorFlow flow) throws IOException {
+    return submit(flow.toCommand("start_cf"));
+  }
+
+  public CompletableFuture<CommandResult> startColorFlowAsync(ColorFlow flow) throws IOException {
+    return sendCommandAsync(flow.toCommand("start_cf"));
+  }
+
+  public int stopColorFlow() throws IOException {
+    return submit(new Command("stop_cf"));
+  }
+
+  public CompletableFuture<CommandResult> stopColorFlowAsync() throws IOException {
+    return sendCommandAsync(new Command("stop_cf"));
+  }
+
+  /**
+   * Start a color flow on the background light of a device which has one
+   *
+   * @param flow Flow to run
+   * @return ID of the command
+   * @throws IOException if the command could not be written
+   */
+  public int startBackgroundColorFlow(ColorFlow flow) throws IOException {
+    return submit(flow.toCommand("bg_start_cf"));
+  }
+
+  public CompletableFuture<CommandResult> startBackgroundColorFlowAsync(ColorFlow flow) throws IOException {
+    return sendCommandAsync(flow.toCommand("bg_start_cf"));
+  }
+
+  public int stopBackgroundColorFlow() throws IOException {
+    return submit(new Command("bg_stop_cf"));
+  }
+
+  public CompletableFuture<CommandResult> stopBackgroundColorFlowAsync() throws IOException {
+    return sendCommandAsync(new Command("bg_stop_cf"));
+  }
+
+  public int setCurrentSettingsDefault() throws IOException {
+    return submit(new Command("set_default"));
+  }
+
+  public CompletableFuture<CommandResult> setCurrentSettingsDefaultAsync() throws IOException {
+    return sendCommandAsync(new Command("set_default"));
+  }
+
+  /**
+   * Merge the state-setting commands sent in quick succession, e.g. while a slider is dragged. A "set_bright",
+   * "set_ct_abx", "set_rgb" or "set_hsv" command is held back for the window and replaced by any newer command of the
+   * same kind, "adjust_*" deltas are summed. Pending commands are only sent while there is quota left.
+   *
+   * @param window Time a command is held back (&lt;= 0 disables coalescing)
+   * @param unit   Unit of the window
+   */
+  public void coalesce(long window, TimeUnit unit) {
+    this.coalescer = window > 0 ? new CommandCoalescer(new CommandCoalescer.Sender() {
+      @Override
+      public CompletableFuture<CommandResult> send(Command command, long timeout) throws IOException {
+        return dispatch(command, timeout);
+      }
+
+      @Override
+      public int getRemainingQuota() {
+        return AbstractDeviceControl.this.getRemainingQuota();
+      }
+
+      @Override
+      public int nextId() {
+        return AbstractDeviceControl.this.nextId();
+      }
+    }, getEngine(), unit.toMillis(window)) : null;
+  }
+
+  /**
+   * Wait for the result of a command sent with one of the int-returning methods.
+   *
+   * @param commandId ID of the sent command
+   * @return Result of the command
+   * @throws java.util.concurrent.CompletionException if the command timed out, the connection failed or the device
+   * does not support the command
+   */
+  public CommandResult awaitAnswer(int commandId) {
+    CompletableFuture<CommandResult> future = retained.get(commandId);
+    if(future == null) {
+      throw new IllegalArgumentException("No command with id " + commandId + " is awaiting an answer.");
+    }
+    try {
+      return future.join();
+    } finally {
+      retained.remove(commandId, future);
+    }
+  }
+
+  /**
+   * Send a command and keep its result until it is collected with {@link #awaitAnswer(int)}.
+   *
+   * @param command Command to send
+   * @throws IOException if the command could not be written
+   */
+  public void sendCommand(Command command) throws IOException {
+    CompletableFuture<CommandResult> future = send(command, commandTimeout);
+    retained.put(command.getId(), future);
+  }
+
+  /**
+   * Send a command using the default command timeout.
+   *
+   * @param command Command to send
+   * @return Future completed when the response arrives
+   * @throws IOException if the command could not be written
+   */
+  public CompletableFuture<CommandResult> sendCommandAsync(Command command) throws IOException {
+    return send(command, commandTimeout);
+  }
+
+  /**
+   * Send a command with its own response timeout.
+   *
+   * @param command Command to send
+   * @param timeout Time to wait for the response (&lt;= 0 means no timeout)
+   * @param unit    Unit of the timeout
+   * @return Future completed when the response arrives, or exceptionally with
+   * {@link TimeoutException} when the timeout elapses first or with
+   * {@link UnsupportedMethodException} when the device does not support the method
+   * @throws IOException if the command could not be written
+   */
+  public CompletableFuture<CommandResult> sendCommandAsync(Command command, long timeout, TimeUnit unit) throws IOException {
+    return send(command, unit.toMillis(timeout));
+  }
+
+  /**
+   * Send several commands at once, e.g. a setup sequence. The commands are encoded back to back and written with a
+   * single write, as far as the quota allows; the rest are queued like single commands. Batches are not coalesced.
+   *
+   * @param commands Commands to send, in order
+   * @return Futures of the commands, in the same order; each command carries its ID once this method returns
+   * @throws IOException if the commands could not be written
+   */
+  public List<CompletableFuture<CommandResult>> sendBatch(List<Command> commands) throws IOException {
+    return batch(commands, commandTimeout);
+  }
+
+  /**
+   * Send several commands at once with their own response timeout, see {@link #sendBatch(List)}.
+   *
+   * @param commands Commands to send, in order
+   * @param timeout  Time to wait for each response (&lt;= 0 means no timeout)
+   * @param unit     Unit of the timeout
+   * @return Futures of the commands, in the same order
+   * @throws IOException if the commands could not be written
+   */
+  public List<CompletableFuture<CommandResult>> sendBatch(List<Command> commands, long timeout, TimeUnit unit)
+      throws IOException {
+    return batch(commands, unit.toMillis(timeout));
+  }
+
+  private int submit(Command command) throws IOException {
+    sendCommand(command);
+    return command.getId();
+  }
+
+  private CompletableFuture<CommandResult> send(Command command, long timeout) throws IOException {
+    try {
+      checkSupported(command);
+    } catch(UnsupportedMethodException e) {
+      return rejected(command, e);
+    }
+    CommandCoalescer coalescer = this.coalescer;
+    if(coalescer != null && CommandCoalescer.accepts(command)) {
+      return coalescer.offer(command, timeout);
+    }
+    return dispatch(command, timeout);
+  }
+
+  /**
+   * Send the supported commands of a batch together, failing the others in place
+   */
+  private List<CompletableFuture<CommandResult>> batch(List<Command> commands, long timeout) throws IOException {
+    List<Command> supported = new ArrayList<>(commands.size());
+    UnsupportedMethodException[] failures = new UnsupportedMethodException[commands.size()];
+    for(int i = 0; i < commands.size(); i++) {
+      try {
+        checkSupported(commands.get(i));
+        supported.add(commands.get(i));
+      } catch(UnsupportedMethodException e) {
+        failures[i] = e;
+      }
+    }
+    if(supported.size() == commands.size()) {
+      return dispatchBatch(commands, timeout);
+    }
+    List<CompletableFuture<CommandResult>> sent = supported.isEmpty()
+        ? Collections.emptyList() : dispatchBatch(supported, timeout);
+    List<CompletableFuture<CommandResult>> futures = new ArrayList<>(commands.size());
+    for(int i = 0, next = 0; i < commands.size(); i++) {
+      futures.add(failures[i] != null ? rejected(commands.get(i), failures[i]) : sent.get(next++));
+    }
+    return futures;
+  }
+
+  /**
+   * @return Future of a command that is not sent, the command still gets an ID
+   */
+  private CompletableFuture<CommandResult> rejected(Command command, UnsupportedMethodException cause) {
+    command.setId(nextId());
+    CompletableFuture<CommandResult> future = new CompletableFuture<>();
+    future.completeExceptionally(cause);
+    return future;
+  }
+
+  /**
+   * Check the method of a command against the methods the device has announced. Methods unknown to
+   * {@link ControlMethod} are let through.
+   *
+   * @throws DeviceMonoOnlyException     if it is a color method and the device supports none for that light
+   * @throws ColorModeException          if it is a color method and the device supports only other ones
+   * @throws UnsupportedMethodException if the device does not support the method
+   */
+  void checkSupported(Command command) throws UnsupportedMethodException {
+    ControlMethod method = ControlMethod.find(command.getMethod());
+    Device device = getDevice();
+    if(method == null || device.supports(method)) {
+      return;
+    }
+    ControlMethod power = method.isBackground() ? ControlMethod.bg_set_power : ControlMethod.set_power;
+    if(method.isColor() && device.supports(power)) {
+      for(ControlMethod other : method.colorMethods()) {
+        if(device.supports(other)) {
+          throw new ColorModeException();
+        }
+      }
+      throw new DeviceMonoOnlyException();
+    }
+    throw new UnsupportedMethodException();
+  }
+
+  abstract ConnectionEngine getEngine();
+
+  /**
+   * @return Next ID of the id space the commands are sent with
+   */
+  abstract int nextId();
+
+  /**
+   * Hand a command over to the connection(s), which attribute its ID
+   *
+   * @param command Command to send
+   * @param timeout Response timeout in milliseconds (&lt;= 0 means no timeout)
+   * @return Future of the command result
+   * @throws IOException if the command could not be written
+   */
+  abstract CompletableFuture<CommandResult> dispatch(Command command, long timeout) throws IOException;
+
+  /**
+   * Hand several commands over to the connection at once, see {@link #sendBatch(List)}
+   *
+   * @param commands Commands to send, in order
+   * @param timeout  Response timeout in milliseconds (&lt;= 0 means no timeout)
+   * @return Futures of the commands, in the same order
+   * @throws IOException if the commands could not be written
+   */
+  abstract List<CompletableFuture<CommandResult>> dispatchBatch(List<Command> commands, long timeout)
+      throws IOException;
+
+  /**
+   * Encode and register a command and take its quota token, without writing it
+   *
+   * @param command Command to prepare
+   * @param timeout Response timeout in milliseconds, counted from the write (&lt;= 0 means no timeout)
+   * @return Command ready to be written
+   * @throws IOException             if the connection is closed
+   * @throws QuotaExceededException     if the command cannot be sent right now without exceeding the quota
+   * @throws UnsupportedMethodException if the device does not support the method of the command
+   */
+  abstract PreparedCommand prepare(Command command, long timeout)
+      throws IOException, QuotaExceededException, UnsupportedMethodException;
+
+  private Command adjustBrightnessCommand(int percentage) throws OutOfRangeException {
+    if(!inRange(percentage, PERCENTAGE_MIN, PERCENTAGE_MAX)) {
+      throw new OutOfRangeException();
+    }
+    return new Command("adjust_bright", percentage, duration);
+  }
+
+  private Command adjustColorTemperatureCommand(int percentage) throws OutOfRangeException {
+    if(!inRange(percentage, PERCENTAGE_MIN, PERCENTAGE_MAX)) {
+      throw new OutOfRangeException();
+    }
+    return new Command("adjust_ct", percentage, duration);
+  }
+
+  private Command adjustColorCommand(int percentage) throws OutOfRangeException {
+    if(!inRange(percentage, PERCENTAGE_MIN, PERCENTAGE_MAX)) {
+      throw new OutOfRangeException();
+    }
+    return new Command("adjust_color", percentage, duration);
+  }
+
+  private Command brightnessCommand(int brightness) throws OutOfRangeException {
+    if(!inRange(brightness, BRIGHT_MIN, BRIGHT_MAX)) {
+      throw new OutOfRangeException();
+    }
+    return new Command("set_bright", brightness, effect.getValue(), duration);
+  }
+
+  private Command powerCommand(boolean power) {
+    return new Command("set_power", power ? "on" : "off");
+  }
+
+  private Command colorTemperatureCommand(int value) throws OutOfRangeException {
+    if(!inRange(value, COLOR_TEMPERATURE_MIN, COLOR_TEMPERATURE_MAX)) {
+      throw new OutOfRangeException();
+    }
+    return new Command("set_ct_abx", value, effect.getValue(), duration);
+  }
+
+  private Command rgbCommand(int r, int g, int b) throws OutOfRangeException {
+    int rgb = Utils.clampAndComputeRGBValue(r, g, b);
+    if(!inRange(rgb, RGB_MIN, RGB_MAX)) {
+      throw new OutOfRangeException();
+    }
+    return new Command("set_rgb", rgb, effect.getValue(), duration);
+  }
+
+  private Command hueCommand(int hue) throws OutOfRangeException {
+    if(!inRange(hue, HUE_MIN, HUE_MAX)) {
+      throw new OutOfRangeException();
+    }
+    return new Command("set_hue", hue, effect.getValue(), duration);
+  }
+
+  private Command saturationCommand(int sat) throws OutOfRangeException {
+    if(!inRange(sat, SATURATION_MIN, SATURATION_MAX)) {
+      throw new OutOfRangeException();
+    }
+    return new Command("set_sat", sat, effect.getValue(), duration);
+  }
+
+  private Command hsvCommand(int hue, int saturation) throws OutOfRangeException {
+    if(!inRange(saturation, SATURATION_MIN, SATURATION_MAX)) {
+      throw new OutOfRangeException();
+    }
+    if(!inRange(hue, HUE_MIN, HUE_MAX)) {
+      throw new OutOfRangeException();
+    }
+    return new Command("set_hsv", hue, saturation, effect.getValue(), duration);
+  }
+
+  private Command nameCommand(String name) throws OutOfRangeException {
+    String encodedName = Utils.encodeName(name);
+    if(encodedName.getBytes().length > NAME_MAX_BYES) {
+      throw new OutOfRangeException();
+    }
+    return new Command("set_name", encodedName);
+  }
+
+  static boolean inRange(int val, int min, int max) {
+    return !(val < min || val > max);
+  }
+}
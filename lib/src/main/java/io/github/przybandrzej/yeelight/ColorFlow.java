@@ -0,0 +1,173 @@
+package io.github.przybandrzej.yeelight;
+
+import io.github.przybandrzej.yeelight.exception.OutOfRangeException;
+
+/**
+ * A sequence of states run by the device itself ("start_cf"), so a whole animation takes a single command. A flow is
+ * immutable and its expression is encoded once when it is built, so it can be started on any number of devices.
+ * <pre>{@code
+ * ColorFlow pulse = ColorFlow.builder()
+ *     .rgb(500, 0xFF0000, 100)
+ *     .rgb(500, 0xFF0000, 1)
+ *     .repeat(0)
+ *     .build();
+ * ctrl.startColorFlow(pulse);
+ * }</pre>
+ */
+public final class ColorFlow {
+  private static final int MODE_COLOR = 1;
+  private static final int MODE_COLOR_TEMPERATURE = 2;
+  private static final int MODE_SLEEP = 7;
+  private static final int DURATION_MIN = 50;
+  private static final int BRIGHTNESS_KEEP = -1;
+
+  private final int count;
+  private final FlowAction action;
+  private final String expression;
+
+  private ColorFlow(int count, FlowAction action, String expression) {
+    this.count = count;
+    this.action = action;
+    this.expression = expression;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return Total number of state changes before the flow stops, 0 for an infinite flow
+   */
+  public int getCount() {
+    return count;
+  }
+
+  public FlowAction getAction() {
+    return action;
+  }
+
+  /**
+   * @return Flow expression, the "duration,mode,value,brightness" tuples of all the states
+   */
+  public String getExpression() {
+    return expression;
+  }
+
+  Command toCommand(String method) {
+    return new Command(method, count, action.getValue(), expression);
+  }
+
+  @Override
+  public String toString() {
+    return "ColorFlow{count=" + count + ", action=" + action + ", expression=" + expression + '}';
+  }
+
+  public static final class Builder {
+    private final StringBuilder expression = new StringBuilder(64);
+    private int steps = 0;
+    private int repetitions = 1;
+    private FlowAction action = FlowAction.RECOVER;
+
+    private Builder() {
+    }
+
+    /**
+     * Change to a color
+     *
+     * @param duration   Duration of the transition in milliseconds (&gt;= 50)
+     * @param rgb        RGB value (1 - 16777215)
+     * @param brightness Brightness (1 - 100), -1 to keep the current one
+     * @return The builder
+     * @throws OutOfRangeException if a value is out of its range
+     */
+    public Builder rgb(int duration, int rgb, int brightness) throws OutOfRangeException {
+      if(!AbstractDeviceControl.inRange(rgb, AbstractDeviceControl.RGB_MIN, AbstractDeviceControl.RGB_MAX)) {
+        throw new OutOfRangeException();
+      }
+      return step(duration, MODE_COLOR, rgb, brightness);
+    }
+
+    /**
+     * Change to a color temperature
+     *
+     * @param duration         Duration of the transition in milliseconds (&gt;= 50)
+     * @param colorTemperature Color temperature (1700 - 6500)
+     * @param brightness       Brightness (1 - 100), -1 to keep the current one
+     * @return The builder
+     * @throws OutOfRangeException if a value is out of its range
+     */
+    public Builder colorTemperature(int duration, int colorTemperature, int brightness) throws OutOfRangeException {
+      if(!AbstractDeviceControl.inRange(colorTemperature, AbstractDeviceControl.COLOR_TEMPERATURE_MIN,
+          AbstractDeviceControl.COLOR_TEMPERATURE_MAX)) {
+        throw new OutOfRangeException();
+      }
+      return step(duration, MODE_COLOR_TEMPERATURE, colorTemperature, brightness);
+    }
+
+    /**
+     * Keep the current state
+     *
+     * @param duration Duration in milliseconds (&gt;= 50)
+     * @return The builder
+     * @throws OutOfRangeException if the duration is too short
+     */
+    public Builder sleep(int duration) throws OutOfRangeException {
+      if(duration < DURATION_MIN) {
+        throw new OutOfRangeException();
+      }
+      return append(duration, MODE_SLEEP, 0, 0);
+    }
+
+    /**
+     * @param repetitions Number of times the whole sequence is run, 0 to run it until it is stopped
+     * @return The builder
+     */
+    public Builder repeat(int repetitions) {
+      if(repetitions < 0) {
+        throw new IllegalArgumentException("The number of repetitions cannot be negative.");
+      }
+      this.repetitions = repetitions;
+      return this;
+    }
+
+    /**
+     * @param action What the device does once the flow has ended (by default it recovers its previous state)
+     * @return The builder
+     */
+    public Builder action(FlowAction action) {
+      if(action == null) {
+        throw new NullPointerException("The flow action cannot be null.");
+      }
+      this.action = action;
+      return this;
+    }
+
+    /**
+     * @return The flow
+     * @throws IllegalStateException if no state was added
+     * @throws ArithmeticException   if the total number of state changes does not fit in an int
+     */
+    public ColorFlow build() {
+      if(steps == 0) {
+        throw new IllegalStateException("A color flow needs at least one state.");
+      }
+      return new ColorFlow(Math.multiplyExact(steps, repetitions), action, expression.toString());
+    }
+
+    private Builder step(int duration, int mode, int value, int brightness) throws OutOfRangeException {
+      if(duration < DURATION_MIN || (brightness != BRIGHTNESS_KEEP && !AbstractDeviceControl.inRange(brightness,
+          AbstractDeviceControl.BRIGHT_MIN, AbstractDeviceControl.BRIGHT_MAX))) {
+        throw new OutOfRangeException();
+      }
+      return append(duration, mode, value, brightness);
+    }
+
+    private Builder append(int duration, int mode, int value, int brightness) {
+      if(steps++ > 0) {
+        expression.append(',');
+      }
+      expression.append(duration).append(',').append(mode).append(',').append(value).append(',').append(brightness);
+      return this;
+    }
+  }
+}
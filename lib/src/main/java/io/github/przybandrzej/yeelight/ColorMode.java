@@ -1,10 +1,16 @@
 package io.github.przybandrzej.yeelight;
 
-import java.util.Arrays;
-
 public enum ColorMode {
   COLOR(1), TEMPERATURE(2), HSV(3);
 
+  private static final ColorMode[] BY_VALUE = new ColorMode[4];
+
+  static {
+    for(ColorMode mode : values()) {
+      BY_VALUE[mode.value] = mode;
+    }
+  }
+
   private int value;
 
   ColorMode(int val) {
@@ -16,6 +22,17 @@ public enum ColorMode {
   }
 
   public static ColorMode valueOf(int value) {
-    return Arrays.stream(ColorMode.values()).filter(it -> it.value == value).findFirst().orElseThrow(() -> new RuntimeException("No such value"));
+    ColorMode mode = find(value);
+    if(mode == null) {
+      throw new RuntimeException("No such value");
+    }
+    return mode;
+  }
+
+  /**
+   * @return Mode with the protocol value, null if there is none
+   */
+  static ColorMode find(int value) {
+    return value >= 0 && value < BY_VALUE.length ? BY_VALUE[value] : null;
   }
 }
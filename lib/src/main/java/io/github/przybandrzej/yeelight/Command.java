@@ -1,17 +1,14 @@
 package io.github.przybandrzej.yeelight;
 
 import com.google.gson.annotations.Expose;
+import io.github.przybandrzej.yeelight.codec.CommandEncoder;
 
 /**
  * Represent a command sent to Yeelight device
  */
 public class Command {
     /**
-     * For unique ID generation
-     */
-    private static int ID_GENERATOR = 1;
-    /**
-     * Command ID
+     * Command ID, allocated from the id space of the connection the command is sent on
      */
     @Expose private int id;
     /**
@@ -24,32 +21,40 @@ public class Command {
     @Expose private Object[] params;
 
     /**
-     * Generate ID for a command
-     * @return An unique ID for a command
-     */
-    private static int generateId() {
-        return ID_GENERATOR++;
-    }
-
-    /**
-     * Command constructor (ID is auto-attributed)
+     * Command constructor (ID is attributed when the command is sent)
      * @param method Associated method
-     * @param params Associated parameters
+     * @param params Associated parameters: strings, numbers, booleans or null
+     * @throws IllegalArgumentException if a parameter cannot be sent, see {@link CommandEncoder#isSupported(Object)}
      */
     public Command(String method, Object... params) {
-        this.id = Command.generateId();
+        if(params != null) {
+            for(Object param : params) {
+                if(!CommandEncoder.isSupported(param)) {
+                    throw new IllegalArgumentException("Unsupported command parameter: " + param);
+                }
+            }
+        }
         this.method = method;
         this.params = params;
     }
 
     /**
      * Getter for ID
-     * @return Command ID
+     * @return Command ID (0 until the command is sent)
      */
     public int getId() {
         return this.id;
     }
 
+    /**
+     * Attribute the ID under which the command is sent. A command instance must not be sent on several
+     * connections at the same time.
+     * @param id Command ID
+     */
+    void setId(int id) {
+        this.id = id;
+    }
+
     public String getMethod() {
         return method;
     }
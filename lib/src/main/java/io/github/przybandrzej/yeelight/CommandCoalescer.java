@@ -0,0 +1,180 @@
+package io.github.przybandrzej.yeelight;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges the commands which only matter for the state they leave the device in. Within the window a newer "set_*"
+ * command replaces the pending one (and the pending "adjust_*" of the same property), while "adjust_*" deltas are
+ * summed. Every caller gets the result of the command that was eventually sent.
+ * <p>
+ * Pending commands are only sent while there is quota left, so a burst of updates never queues up behind the quota.
+ */
+final class CommandCoalescer {
+
+  /**
+   * Sends a merged command
+   */
+  interface Sender {
+    CompletableFuture<CommandResult> send(Command command, long timeout) throws IOException;
+
+    int getRemainingQuota();
+
+    int nextId();
+  }
+
+  private static final class Slot {
+    private Command command;
+    private long timeout;
+    private final List<CompletableFuture<CommandResult>> futures = new ArrayList<>();
+  }
+
+  private static final String[][] SUPERSEDES = {
+      {"set_bright", "adjust_bright"},
+      {"set_ct_abx", "adjust_ct"},
+      {"set_rgb", "adjust_color", "set_hsv"},
+      {"set_hsv", "adjust_color", "set_rgb"},
+  };
+  private static final String[] ADJUSTMENTS = {"adjust_bright", "adjust_ct", "adjust_color"};
+  private static final int PERCENTAGE_MAX = 100;
+
+  private final Sender sender;
+  private final ConnectionEngine engine;
+  private final long window;
+  private final Map<String, Slot> slots = new LinkedHashMap<>();
+  private boolean flushScheduled = false;
+
+  /**
+   * @param window Time in milliseconds a command is held back to be merged with the following ones
+   */
+  CommandCoalescer(Sender sender, ConnectionEngine engine, long window) {
+    this.sender = sender;
+    this.engine = engine;
+    this.window = window;
+  }
+
+  static boolean accepts(Command command) {
+    if(isAdjustment(command.getMethod())) {
+      Object[] params = command.getParams();
+      return params != null && params.length > 0 && params[0] instanceof Number;
+    }
+    return supersedes(command.getMethod()) != null;
+  }
+
+  /**
+   * Hold the command back until the end of the window. The command gets an ID, so its result can be awaited like
+   * the result of a command sent right away.
+   *
+   * @return Future completed with the result of the command the given one has been merged into
+   */
+  synchronized CompletableFuture<CommandResult> offer(Command command, long timeout) {
+    command.setId(sender.nextId());
+    String method = command.getMethod();
+    Slot slot;
+    if(isAdjustment(method)) {
+      slot = slots.get(method);
+      if(slot == null) {
+        slot = new Slot();
+        slot.command = command;
+        slots.put(method, slot);
+      } else {
+        slot.command = sum(slot.command, command);
+      }
+    } else {
+      // the newest "set_*" decides the state: it drops what it supersedes and moves behind the commands offered before
+      slot = slots.remove(method);
+      if(slot == null) {
+        slot = new Slot();
+      }
+      String[] superseded = supersedes(method);
+      for(int i = 1; i < superseded.length; i++) {
+        Slot previous = slots.remove(superseded[i]);
+        if(previous != null) {
+          slot.futures.addAll(previous.futures);
+        }
+      }
+      slot.command = command;
+      slots.put(method, slot);
+    }
+    slot.timeout = timeout;
+    CompletableFuture<CommandResult> future = new CompletableFuture<>();
+    slot.futures.add(future);
+    scheduleFlush();
+    return future;
+  }
+
+  synchronized int getPending() {
+    return slots.size();
+  }
+
+  private synchronized void flush() {
+    flushScheduled = false;
+    int quota = sender.getRemainingQuota();
+    Iterator<Slot> iterator = slots.values().iterator();
+    while(iterator.hasNext() && quota-- > 0) {
+      Slot slot = iterator.next();
+      iterator.remove();
+      send(slot);
+    }
+    scheduleFlush();
+  }
+
+  private void send(Slot slot) {
+    Command command = new Command(slot.command.getMethod(), slot.command.getParams());
+    try {
+      sender.send(command, slot.timeout).whenComplete((result, throwable) -> {
+        for(CompletableFuture<CommandResult> future : slot.futures) {
+          if(throwable != null) {
+            future.completeExceptionally(throwable);
+          } else {
+            future.complete(result);
+          }
+        }
+      });
+    } catch(IOException | RuntimeException e) {
+      slot.futures.forEach(future -> future.completeExceptionally(e));
+    }
+  }
+
+  private void scheduleFlush() {
+    if(flushScheduled || slots.isEmpty()) {
+      return;
+    }
+    flushScheduled = true;
+    engine.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Add the delta of the newer adjustment to the pending one, keeping the duration of the newer one
+   */
+  private static Command sum(Command pending, Command next) {
+    Object[] params = next.getParams().clone();
+    int percentage = ((Number) pending.getParams()[0]).intValue() + ((Number) next.getParams()[0]).intValue();
+    params[0] = Math.max(-PERCENTAGE_MAX, Math.min(PERCENTAGE_MAX, percentage));
+    return new Command(next.getMethod(), params);
+  }
+
+  private static String[] supersedes(String method) {
+    for(String[] entry : SUPERSEDES) {
+      if(entry[0].equals(method)) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isAdjustment(String method) {
+    for(String adjustment : ADJUSTMENTS) {
+      if(adjustment.equals(method)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
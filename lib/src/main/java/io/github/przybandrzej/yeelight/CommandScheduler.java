@@ -0,0 +1,245 @@
+package io.github.przybandrzej.yeelight;
+
+import io.github.przybandrzej.yeelight.exception.QuotaExceededException;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the commands of one connection while both its own quota and the shared per-device quota have tokens left.
+ * Commands over the budget are queued in order and sent as soon as tokens are returned instead of being dropped by
+ * the device.
+ */
+final class CommandScheduler {
+
+  /**
+   * Writes a command on the connection once it has been granted a token
+   */
+  interface Transmitter {
+    void transmit(Command command, CompletableFuture<CommandResult> future, long timeout) throws IOException;
+  }
+
+  private static final class Entry {
+    private final Command command;
+    private final CompletableFuture<CommandResult> future;
+    private final long timeout;
+
+    private Entry(Command command, CompletableFuture<CommandResult> future, long timeout) {
+      this.command = command;
+      this.future = future;
+      this.timeout = timeout;
+    }
+  }
+
+  private final TokenBucket connectionQuota;
+  private final TokenBucket deviceQuota;
+  private final ConnectionEngine engine;
+  private final Transmitter transmitter;
+  private final Deque<Entry> queue = new ArrayDeque<>();
+  private int maxQueued;
+  private boolean drainScheduled = false;
+  private IOException closedCause = null;
+  private IOException lostCause = null;
+  private int maxReplayed = -1;
+
+  CommandScheduler(TokenBucket connectionQuota, TokenBucket deviceQuota, ConnectionEngine engine, int maxQueued,
+                   Transmitter transmitter) {
+    this.connectionQuota = connectionQuota;
+    this.deviceQuota = deviceQuota;
+    this.engine = engine;
+    this.maxQueued = maxQueued;
+    this.transmitter = transmitter;
+  }
+
+  synchronized void setMaxQueued(int maxQueued) {
+    this.maxQueued = maxQueued;
+  }
+
+  /**
+   * Send the command now if the quotas allow it, queue it otherwise.
+   *
+   * @param command Command to send
+   * @param future  Future of the command, failed if the command cannot be queued
+   * @param timeout Response timeout, counted from the moment the command is written
+   * @throws IOException if the command was sent immediately and the write failed
+   */
+  synchronized void submit(Command command, CompletableFuture<CommandResult> future, long timeout) throws IOException {
+    if(closedCause != null) {
+      throw closedCause;
+    }
+    if(lostCause != null) {
+      if(queue.size() >= maxReplayed) {
+        future.completeExceptionally(lostCause);
+      } else {
+        queue.add(new Entry(command, future, timeout));
+      }
+      return;
+    }
+    if(queue.isEmpty() && acquire()) {
+      try {
+        transmitter.transmit(command, future, timeout);
+      } catch(IOException e) {
+        if(!requeue(new Entry(command, future, timeout), e)) {
+          throw e;
+        }
+      }
+      return;
+    }
+    if(queue.size() >= maxQueued) {
+      future.completeExceptionally(new QuotaExceededException());
+      return;
+    }
+    queue.add(new Entry(command, future, timeout));
+    scheduleDrain();
+  }
+
+  /**
+   * Take the tokens of a command written outside of the scheduler
+   *
+   * @return true if the quotas allow the command and nothing is queued before it
+   * @throws IOException if the connection is closed
+   */
+  synchronized boolean tryAcquire() throws IOException {
+    return tryAcquire(1) == 1;
+  }
+
+  /**
+   * Take the tokens of commands written outside of the scheduler, e.g. as one batch
+   *
+   * @param commands Number of commands
+   * @return Number of commands granted a token, 0 if commands are already queued
+   * @throws IOException if the connection is closed
+   */
+  synchronized int tryAcquire(int commands) throws IOException {
+    if(closedCause != null) {
+      throw closedCause;
+    }
+    if(lostCause != null) {
+      return 0;
+    }
+    int granted = 0;
+    while(granted < commands && queue.isEmpty() && acquire()) {
+      granted++;
+    }
+    return granted;
+  }
+
+  synchronized int getRemainingQuota() {
+    long now = System.nanoTime();
+    return Math.min(connectionQuota.available(now), deviceQuota.available(now));
+  }
+
+  synchronized int getConnectionRemaining() {
+    return connectionQuota.available(System.nanoTime());
+  }
+
+  int getDeviceRemaining() {
+    return deviceQuota.available(System.nanoTime());
+  }
+
+  synchronized int getQueued() {
+    return queue.size();
+  }
+
+  /**
+   * @param maxReplayed Number of queued commands to keep while the connection is being re-established, -1 if it is
+   *                    not re-established and a failed write fails its command
+   */
+  synchronized void setMaxReplayed(int maxReplayed) {
+    this.maxReplayed = maxReplayed;
+  }
+
+  /**
+   * Hold the commands back while the connection is being re-established
+   *
+   * @param cause Cause of the connection loss, the queued commands over the limit fail with it
+   */
+  synchronized void pause(IOException cause) {
+    this.lostCause = cause;
+    Entry entry;
+    while(queue.size() > Math.max(maxReplayed, 0) && (entry = queue.pollLast()) != null) {
+      entry.future.completeExceptionally(cause);
+    }
+  }
+
+  /**
+   * Send the commands held back while the connection was down, as the quotas allow
+   */
+  synchronized void resume() {
+    lostCause = null;
+    if(!queue.isEmpty()) {
+      scheduleDrain();
+    }
+  }
+
+  synchronized void close(IOException cause) {
+    closedCause = cause;
+    Entry entry;
+    while((entry = queue.poll()) != null) {
+      entry.future.completeExceptionally(cause);
+    }
+  }
+
+  private synchronized void drain() {
+    drainScheduled = false;
+    if(lostCause != null) {
+      return;
+    }
+    Entry entry;
+    while((entry = queue.peek()) != null) {
+      if(entry.future.isDone()) {
+        queue.poll();
+        continue;
+      }
+      if(!acquire()) {
+        scheduleDrain();
+        return;
+      }
+      queue.poll();
+      try {
+        transmitter.transmit(entry.command, entry.future, entry.timeout);
+      } catch(IOException e) {
+        if(requeue(entry, e)) {
+          return;
+        }
+        entry.future.completeExceptionally(e);
+      }
+    }
+  }
+
+  /**
+   * Put a command whose write failed back at the head of the queue, it is replayed once the connection is back
+   *
+   * @return false if the connection is not re-established
+   */
+  private boolean requeue(Entry entry, IOException cause) {
+    if(closedCause != null || maxReplayed < 0) {
+      return false;
+    }
+    queue.addFirst(entry);
+    // the connection may still be closing, the commands are held back until it reports the loss
+    pause(lostCause != null ? lostCause : cause);
+    return true;
+  }
+
+  private boolean acquire() {
+    long now = System.nanoTime();
+    if(connectionQuota.available(now) == 0 || !deviceQuota.tryAcquire(now)) {
+      return false;
+    }
+    return connectionQuota.tryAcquire(now);
+  }
+
+  private void scheduleDrain() {
+    if(drainScheduled || closedCause != null || lostCause != null) {
+      return;
+    }
+    long now = System.nanoTime();
+    long delay = Math.max(connectionQuota.nanosUntilAvailable(now), deviceQuota.nanosUntilAvailable(now));
+    drainScheduled = true;
+    engine.schedule(this::drain, Math.max(delay, 1), TimeUnit.NANOSECONDS);
+  }
+}
@@ -0,0 +1,183 @@
+package io.github.przybandrzej.yeelight;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking, line-delimited TCP connection owned by an {@link EventLoop}.
+ * Writes are attempted directly on the calling thread and only queued when the socket buffer is full.
+ */
+final class Connection {
+
+  private static final int READ_BUFFER_SIZE = 4096;
+  private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+  /**
+   * Receiver of the connection events. Called on the event loop thread.
+   */
+  interface Listener {
+    /**
+     * @param data   Buffer holding the message, only valid during the call
+     * @param offset Start of the message
+     * @param length Length of the message, without the line terminator
+     */
+    void onMessage(byte[] data, int offset, int length);
+
+    void onClose(IOException cause);
+  }
+
+  private final SocketChannel channel;
+  private final EventLoop loop;
+  private final Listener listener;
+  private final Queue<ByteBuffer> writeQueue = new ArrayDeque<>();
+  private final Object writeLock = new Object();
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+  private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+  private volatile SelectionKey key;
+
+  Connection(SocketChannel channel, EventLoop loop, Listener listener) {
+    this.channel = channel;
+    this.loop = loop;
+    this.listener = listener;
+  }
+
+  EventLoop getLoop() {
+    return loop;
+  }
+
+  boolean isOpen() {
+    return !closed.get();
+  }
+
+  void register() {
+    loop.execute(() -> {
+      try {
+        key = loop.register(channel, SelectionKey.OP_READ, this);
+      } catch(IOException e) {
+        close(e);
+      }
+    });
+  }
+
+  /**
+   * Write the remaining bytes of the buffer. The buffer is copied if it cannot be written at once.
+   *
+   * @param data Bytes to write
+   * @throws IOException if the connection is closed or the write failed
+   */
+  void write(ByteBuffer data) throws IOException {
+    if(closed.get()) {
+      throw new IOException("Connection closed");
+    }
+    synchronized(writeLock) {
+      if(writeQueue.isEmpty()) {
+        try {
+          channel.write(data);
+        } catch(IOException e) {
+          close(e);
+          throw e;
+        }
+        if(!data.hasRemaining()) {
+          return;
+        }
+      }
+      ByteBuffer pending = ByteBuffer.allocate(data.remaining());
+      pending.put(data).flip();
+      writeQueue.add(pending);
+    }
+    loop.execute(this::enableWriteInterest);
+  }
+
+  void handleWrite() {
+    synchronized(writeLock) {
+      try {
+        ByteBuffer buffer;
+        while((buffer = writeQueue.peek()) != null) {
+          channel.write(buffer);
+          if(buffer.hasRemaining()) {
+            return;
+          }
+          writeQueue.poll();
+        }
+      } catch(IOException e) {
+        close(e);
+        return;
+      }
+      key.interestOps(SelectionKey.OP_READ);
+    }
+  }
+
+  void handleRead() {
+    int read;
+    try {
+      read = channel.read(readBuffer);
+    } catch(IOException e) {
+      close(e);
+      return;
+    }
+    if(read < 0) {
+      close(new EOFException("Connection closed by the device"));
+      return;
+    }
+    readBuffer.flip();
+    byte[] array = readBuffer.array();
+    int start = readBuffer.position();
+    int limit = readBuffer.limit();
+    for(int i = start; i < limit; i++) {
+      if(array[i] != '\n') {
+        continue;
+      }
+      int end = i > start && array[i - 1] == '\r' ? i - 1 : i;
+      if(end > start) {
+        dispatch(array, start, end - start);
+      }
+      start = i + 1;
+    }
+    readBuffer.position(start);
+    readBuffer.compact();
+    if(!readBuffer.hasRemaining()) {
+      if(readBuffer.capacity() >= MAX_LINE_LENGTH) {
+        close(new IOException("Message exceeds " + MAX_LINE_LENGTH + " bytes"));
+        return;
+      }
+      ByteBuffer bigger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+      readBuffer.flip();
+      bigger.put(readBuffer);
+      readBuffer = bigger;
+    }
+  }
+
+  void close(IOException cause) {
+    if(!closed.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      channel.close();
+    } catch(IOException ignored) {
+    }
+    loop.execute(() -> loop.deregister(key));
+    listener.onClose(cause);
+  }
+
+  private void enableWriteInterest() {
+    SelectionKey selectionKey = key;
+    if(selectionKey != null && selectionKey.isValid()) {
+      selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+  }
+
+  private void dispatch(byte[] data, int offset, int length) {
+    try {
+      listener.onMessage(data, offset, length);
+    } catch(RuntimeException e) {
+      Thread thread = Thread.currentThread();
+      thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+  }
+}
@@ -0,0 +1,271 @@
+package io.github.przybandrzej.yeelight;
+
+import io.github.przybandrzej.yeelight.metrics.DeviceMetrics;
+import io.github.przybandrzej.yeelight.metrics.MetricsListener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the connections of many {@link DeviceControl} instances and drives them from a small, fixed number of
+ * selector threads, so the thread count does not grow with the number of devices. Idle connections cost no CPU.
+ */
+public class ConnectionEngine implements Closeable {
+
+  private static final int DEFAULT_EVENT_LOOPS = Math.min(2, Runtime.getRuntime().availableProcessors());
+  private static ConnectionEngine defaultEngine;
+
+  private final EventLoop[] loops;
+  private final ScheduledExecutorService timer;
+  private final Executor callbackExecutor;
+  private final Map<String, TokenBucket> deviceQuotas = new ConcurrentHashMap<>();
+  private final long quotaWindow;
+  private final Set<DeviceMetrics> metrics = ConcurrentHashMap.newKeySet();
+  private volatile MetricsListener[] metricsListeners = new MetricsListener[0];
+  private volatile boolean closed = false;
+
+  /**
+   * Create an engine with its own event loop threads. Callbacks run on the event loop threads on Java 8 and on
+   * virtual threads on Java 21 and newer.
+   *
+   * @param eventLoops Number of selector threads (&gt;= 1)
+   * @throws IOException if a selector cannot be opened
+   */
+  public ConnectionEngine(int eventLoops) throws IOException {
+    this(eventLoops, Threads.defaultCallbackExecutor());
+  }
+
+  /**
+   * Create an engine with its own event loop threads and running the device callbacks (state change callbacks and
+   * property listeners) on the given executor. The callbacks of one device are still run one at a time, in order.
+   *
+   * @param eventLoops       Number of selector threads (&gt;= 1)
+   * @param callbackExecutor Executor of the callbacks, e.g. {@code Executors.newCachedThreadPool(threadFactory)}
+   * @throws IOException if a selector cannot be opened
+   */
+  public ConnectionEngine(int eventLoops, Executor callbackExecutor) throws IOException {
+    this(eventLoops, callbackExecutor, TokenBucket.QUOTA_WINDOW);
+  }
+
+  /**
+   * @param eventLoops       Number of selector threads (&gt;= 1)
+   * @param callbackExecutor Executor of the callbacks
+   * @param quotaWindow      Nanoseconds after which a spent quota token is returned, 0 to lift the quotas for
+   *                         benchmarks and simulated devices
+   * @throws IOException if a selector cannot be opened
+   */
+  ConnectionEngine(int eventLoops, Executor callbackExecutor, long quotaWindow) throws IOException {
+    this.quotaWindow = quotaWindow;
+    this.callbackExecutor = Objects.requireNonNull(callbackExecutor, "The callback executor cannot be null.");
+    if(eventLoops < 1) {
+      throw new IllegalArgumentException("At least one event loop is required.");
+    }
+    this.loops = new EventLoop[eventLoops];
+    for(int i = 0; i < eventLoops; i++) {
+      loops[i] = new EventLoop("yeelight-event-loop-" + i);
+    }
+    for(EventLoop loop : loops) {
+      loop.start();
+    }
+    this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "yeelight-timer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    for(MetricsListener listener : ServiceLoader.load(MetricsListener.class)) {
+      addMetricsListener(listener);
+    }
+  }
+
+  /**
+   * Shared engine used by {@link DeviceControl} when no engine is given explicitly
+   *
+   * @return Default engine
+   * @throws IOException if the engine cannot be started
+   */
+  public static synchronized ConnectionEngine getDefault() throws IOException {
+    if(defaultEngine == null) {
+      defaultEngine = new ConnectionEngine(DEFAULT_EVENT_LOOPS);
+    }
+    return defaultEngine;
+  }
+
+  /**
+   * Stop all event loops and close every connection they own. The connections are not reconnected afterwards.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    synchronized(ConnectionEngine.class) {
+      if(defaultEngine == this) {
+        defaultEngine = null;
+      }
+    }
+    for(EventLoop loop : loops) {
+      loop.shutdown();
+    }
+    timer.shutdownNow();
+  }
+
+  /**
+   * Export the metrics of the device connections of this engine. The listener is told about the connections already
+   * open right away.
+   *
+   * @param listener Listener to add
+   */
+  public void addMetricsListener(MetricsListener listener) {
+    Objects.requireNonNull(listener, "The metrics listener cannot be null.");
+    synchronized(metrics) {
+      MetricsListener[] listeners = Arrays.copyOf(metricsListeners, metricsListeners.length + 1);
+      listeners[listeners.length - 1] = listener;
+      metricsListeners = listeners;
+      metrics.forEach(listener::deviceAdded);
+    }
+  }
+
+  public void removeMetricsListener(MetricsListener listener) {
+    synchronized(metrics) {
+      metricsListeners = Arrays.stream(metricsListeners).filter(it -> it != listener).toArray(MetricsListener[]::new);
+    }
+  }
+
+  /**
+   * @return Metrics of the device connections currently open on this engine
+   */
+  public Collection<DeviceMetrics> getMetrics() {
+    return Collections.unmodifiableSet(metrics);
+  }
+
+  /**
+   * @return Registered metrics listeners, the array must not be modified
+   */
+  MetricsListener[] getMetricsListeners() {
+    return metricsListeners;
+  }
+
+  void register(DeviceMetrics deviceMetrics) {
+    synchronized(metrics) {
+      if(metrics.add(deviceMetrics)) {
+        for(MetricsListener listener : metricsListeners) {
+          listener.deviceAdded(deviceMetrics);
+        }
+      }
+    }
+  }
+
+  void unregister(DeviceMetrics deviceMetrics) {
+    synchronized(metrics) {
+      if(metrics.remove(deviceMetrics)) {
+        for(MetricsListener listener : metricsListeners) {
+          listener.deviceRemoved(deviceMetrics);
+        }
+      }
+    }
+  }
+
+  Connection connect(InetSocketAddress address, int timeout, Connection.Listener listener) throws IOException {
+    SocketChannel channel = SocketChannel.open();
+    try {
+      channel.socket().connect(address, timeout);
+    } catch(IOException e) {
+      channel.close();
+      throw e;
+    }
+    return register(channel, listener);
+  }
+
+  /**
+   * Take over an already connected channel
+   *
+   * @param channel  Connected channel
+   * @param listener Receiver of the connection events
+   * @return Connection driven by one of the event loops
+   * @throws IOException if the channel cannot be configured
+   */
+  Connection register(SocketChannel channel, Connection.Listener listener) throws IOException {
+    try {
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    } catch(IOException e) {
+      channel.close();
+      throw e;
+    }
+    Connection connection = new Connection(channel, nextLoop(), listener);
+    connection.register();
+    return connection;
+  }
+
+  void listen(ServerSocketChannel channel, EventLoop.Acceptor acceptor) throws IOException {
+    channel.configureBlocking(false);
+    EventLoop loop = nextLoop();
+    loop.execute(() -> {
+      try {
+        loop.register(channel, SelectionKey.OP_ACCEPT, acceptor);
+      } catch(IOException e) {
+        try {
+          channel.close();
+        } catch(IOException ignored) {
+        }
+      }
+    });
+  }
+
+  /**
+   * @return true once the engine is closed, it does not take new connections then
+   */
+  boolean isClosed() {
+    return closed;
+  }
+
+  Executor getCallbackExecutor() {
+    return callbackExecutor;
+  }
+
+  ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+    return timer.schedule(task, delay, unit);
+  }
+
+  /**
+   * @param deviceKey Unique key of the device
+   * @return Quota shared by all the connections this engine holds to the device
+   */
+  TokenBucket deviceQuota(String deviceKey) {
+    return deviceQuotas.computeIfAbsent(deviceKey,
+        key -> new TokenBucket(TokenBucket.DEVICE_QUOTA, quotaWindow));
+  }
+
+  /**
+   * @return Quota window of the connections of this engine, in nanoseconds
+   */
+  long getQuotaWindow() {
+    return quotaWindow;
+  }
+
+  private EventLoop nextLoop() {
+    EventLoop selected = loops[0];
+    for(EventLoop loop : loops) {
+      if(loop.getRegistrations() < selected.getRegistrations()) {
+        selected = loop;
+      }
+    }
+    return selected;
+  }
+}
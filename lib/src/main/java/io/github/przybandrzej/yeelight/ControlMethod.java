@@ -1,5 +1,13 @@
 package io.github.przybandrzej.yeelight;
 
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Control methods of the protocol, as listed in the "support" header of the devices
+ */
 public enum ControlMethod {
   get_prop,
   set_ct_abx,
@@ -35,5 +43,45 @@ public enum ControlMethod {
   adjust_color,
   bg_adjust_bright,
   bg_adjust_ct,
-  bg_adjust_color
+  bg_adjust_color;
+
+  private static final Map<String, ControlMethod> BY_NAME = new HashMap<>();
+  private static final Set<ControlMethod> COLOR = EnumSet.of(set_ct_abx, set_rgb, set_hsv, adjust_ct, adjust_color);
+  private static final Set<ControlMethod> BACKGROUND_COLOR = EnumSet.of(bg_set_ct_abx, bg_set_rgb, bg_set_hsv,
+      bg_adjust_ct, bg_adjust_color);
+
+  static {
+    for(ControlMethod method : values()) {
+      BY_NAME.put(method.name(), method);
+    }
+  }
+
+  /**
+   * @param name Name of the method in the protocol
+   * @return Method with the name, null if it is not known
+   */
+  public static ControlMethod find(String name) {
+    return BY_NAME.get(name);
+  }
+
+  /**
+   * @return Whether the method sets or adjusts the color or color temperature
+   */
+  public boolean isColor() {
+    return COLOR.contains(this) || BACKGROUND_COLOR.contains(this);
+  }
+
+  /**
+   * @return Whether the method controls the background light
+   */
+  public boolean isBackground() {
+    return name().startsWith("bg_");
+  }
+
+  /**
+   * @return Color methods of the same light as this method, the main or the background one
+   */
+  Set<ControlMethod> colorMethods() {
+    return isBackground() ? BACKGROUND_COLOR : COLOR;
+  }
 }
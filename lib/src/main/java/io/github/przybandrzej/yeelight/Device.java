@@ -1,5 +1,9 @@
 package io.github.przybandrzej.yeelight;
 
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
 public class Device {
 
   /**
@@ -17,6 +21,11 @@ public class Device {
    */
   private Model model;
 
+  /**
+   * The model name as advertised, kept as it is for the models this version does not know ({@link Model#UNKNOWN})
+   */
+  private String modelName;
+
   /**
    * LED device's firmware version.
    */
@@ -30,79 +39,42 @@ public class Device {
   private String[] support;
 
   /**
-   * Current status of the device. "on" means the device is currently turned on, "off"
-   * means it's turned off (not un-powered, just software-managed off).
-   */
-  private boolean power;
-
-  /**
-   * Current brightness, it's the percentage of maximum brightness. The range of
-   * this value is 1 ~ 100.
+   * {@link #support} as a set, null while the supported methods are unknown
    */
-  private int brightness;
+  private Set<ControlMethod> capabilities;
 
   /**
-   * Current light mode. 1 means color mode, 2 means color temperature
-   * mode, 3 means HSV mode.
-   */
-  private ColorMode colorMode;
-
-  /**
-   * Current color temperature value. The range of this value depends on product model,
-   * refert to Yeelight product description. This field is only valid if COLOR_MODE is 2.
-   */
-  private int colorTemperature;
-
-  /**
-   * Current RGB value. The field is only valid if COLOR_MODE is 1. The value will be
-   * explained in next section.
-   */
-  private int rgb;
-
-  /**
-   * Current hue value. The range of this value is 0 to 359. This field is only valid if
-   * COLOR_MODE is 3.
-   * NOTE: HUE and SAT should be used in combination. CT mode, RGB mode and HSV mode
-   * are mutually exclusively.
-   */
-  private int hue;
-
-  /**
-   * Current saturation value. The range of this value is 0 to 100. The field is only valid if
-   * COLOR_MODE is 3.
-   * NOTE: HUE and SAT should be used in combination. CT mode, RGB mode and HSV mode
-   * are mutually exclusively.
+   * field contains the service access point of the smart LED deivce. The URI
+   * scheme will always be "yeelight", host is the IP address of smart LED, port is control
+   * service's TCP listen port.
    */
-  private int saturation;
+  private String location;
 
   /**
-   *  Name of the device. User can use “set_name” to store the name on the device.
-   * The maximum length is 64 bytes. If none-ASCII character is used, it is suggested to
-   * BASE64 the name first and then use “set_name” to store it on device.
+   * Values of the numeric properties, indexed by {@link DeviceProperty#getSlot()}. Switches are stored as 0 or 1 and
+   * color modes as their protocol value, 0 when unknown.
    */
-  private String name;
+  private final int[] state = new int[DeviceProperty.STATE_SLOTS];
 
   /**
-   * field contains the service access point of the smart LED deivce. The URI
-   * scheme will always be "yeelight", host is the IP address of smart LED, port is control
-   * service's TCP listen port.
+   * Values of the text properties, indexed by {@link DeviceProperty#getSlot()}
    */
-  private String location;
+  private final String[] text = new String[DeviceProperty.TEXT_SLOTS];
 
   public Device(String id, Model model, int firmwareVersion, String[] support, boolean power, int brightness, ColorMode colorMode, int colorTemperature, int rgb, int hue, int saturation, String name, String location) {
     this.id = id;
     this.model = model;
     this.firmwareVersion = firmwareVersion;
     this.support = support;
-    this.power = power;
-    this.brightness = brightness;
-    this.colorMode = colorMode;
-    this.colorTemperature = colorTemperature;
-    this.rgb = rgb;
-    this.hue = hue;
-    this.saturation = saturation;
-    this.name = name;
     this.location = location;
+    state[DeviceProperty.POWER.getSlot()] = power ? 1 : 0;
+    state[DeviceProperty.BRIGHT.getSlot()] = brightness;
+    state[DeviceProperty.COLOR_MODE.getSlot()] = colorMode == null ? 0 : colorMode.getValue();
+    state[DeviceProperty.CT.getSlot()] = colorTemperature;
+    state[DeviceProperty.RGB.getSlot()] = rgb;
+    state[DeviceProperty.HUE.getSlot()] = hue;
+    state[DeviceProperty.SAT.getSlot()] = saturation;
+    text[DeviceProperty.NAME.getSlot()] = name;
   }
 
   public Device() {
@@ -124,6 +96,20 @@ public class Device {
     this.model = model;
   }
 
+  /**
+   * @return Model name as advertised by the device, the name of {@link #getModel()} if none was advertised
+   */
+  public String getModelName() {
+    if(modelName == null && model != null) {
+      return model.getValue();
+    }
+    return modelName;
+  }
+
+  public void setModelName(String modelName) {
+    this.modelName = modelName;
+  }
+
   public int getFirmwareVersion() {
     return firmwareVersion;
   }
@@ -138,70 +124,136 @@ public class Device {
 
   public void setSupport(String[] support) {
     this.support = support;
+    if(support == null || support.length == 0) {
+      this.capabilities = null;
+      return;
+    }
+    Set<ControlMethod> capabilities = EnumSet.noneOf(ControlMethod.class);
+    for(String name : support) {
+      ControlMethod method = ControlMethod.find(name);
+      if(method != null) {
+        capabilities.add(method);
+      }
+    }
+    this.capabilities = Collections.unmodifiableSet(capabilities);
+  }
+
+  /**
+   * @return Control methods the device has announced, all of them while it has not announced any
+   */
+  public Set<ControlMethod> getCapabilities() {
+    Set<ControlMethod> capabilities = this.capabilities;
+    return capabilities != null ? capabilities : Collections.unmodifiableSet(EnumSet.allOf(ControlMethod.class));
+  }
+
+  /**
+   * @param method Control method
+   * @return Whether the device accepts the method, true while the device has not announced its methods
+   */
+  public boolean supports(ControlMethod method) {
+    Set<ControlMethod> capabilities = this.capabilities;
+    return capabilities == null || capabilities.contains(method);
   }
 
+  /**
+   * Current status of the device. "on" means the device is currently turned on, "off"
+   * means it's turned off (not un-powered, just software-managed off).
+   */
   public boolean isPower() {
-    return power;
+    return state[DeviceProperty.POWER.getSlot()] != 0;
   }
 
   public void setPower(boolean power) {
-    this.power = power;
+    state[DeviceProperty.POWER.getSlot()] = power ? 1 : 0;
   }
 
+  /**
+   * Current brightness, it's the percentage of maximum brightness. The range of
+   * this value is 1 ~ 100.
+   */
   public int getBrightness() {
-    return brightness;
+    return state[DeviceProperty.BRIGHT.getSlot()];
   }
 
   public void setBrightness(int brightness) {
-    this.brightness = brightness;
+    state[DeviceProperty.BRIGHT.getSlot()] = brightness;
   }
 
+  /**
+   * Current light mode. 1 means color mode, 2 means color temperature
+   * mode, 3 means HSV mode.
+   */
   public ColorMode getColorMode() {
-    return colorMode;
+    return ColorMode.find(state[DeviceProperty.COLOR_MODE.getSlot()]);
   }
 
   public void setColorMode(ColorMode colorMode) {
-    this.colorMode = colorMode;
+    state[DeviceProperty.COLOR_MODE.getSlot()] = colorMode == null ? 0 : colorMode.getValue();
   }
 
+  /**
+   * Current color temperature value. The range of this value depends on product model,
+   * refert to Yeelight product description. This field is only valid if COLOR_MODE is 2.
+   */
   public int getColorTemperature() {
-    return colorTemperature;
+    return state[DeviceProperty.CT.getSlot()];
   }
 
   public void setColorTemperature(int colorTemperature) {
-    this.colorTemperature = colorTemperature;
+    state[DeviceProperty.CT.getSlot()] = colorTemperature;
   }
 
+  /**
+   * Current RGB value. The field is only valid if COLOR_MODE is 1. The value will be
+   * explained in next section.
+   */
   public int getRgb() {
-    return rgb;
+    return state[DeviceProperty.RGB.getSlot()];
   }
 
   public void setRgb(int rgb) {
-    this.rgb = rgb;
+    state[DeviceProperty.RGB.getSlot()] = rgb;
   }
 
+  /**
+   * Current hue value. The range of this value is 0 to 359. This field is only valid if
+   * COLOR_MODE is 3.
+   * NOTE: HUE and SAT should be used in combination. CT mode, RGB mode and HSV mode
+   * are mutually exclusively.
+   */
   public int getHue() {
-    return hue;
+    return state[DeviceProperty.HUE.getSlot()];
   }
 
   public void setHue(int hue) {
-    this.hue = hue;
+    state[DeviceProperty.HUE.getSlot()] = hue;
   }
 
+  /**
+   * Current saturation value. The range of this value is 0 to 100. The field is only valid if
+   * COLOR_MODE is 3.
+   * NOTE: HUE and SAT should be used in combination. CT mode, RGB mode and HSV mode
+   * are mutually exclusively.
+   */
   public int getSaturation() {
-    return saturation;
+    return state[DeviceProperty.SAT.getSlot()];
   }
 
   public void setSaturation(int saturation) {
-    this.saturation = saturation;
+    state[DeviceProperty.SAT.getSlot()] = saturation;
   }
 
+  /**
+   *  Name of the device. User can use “set_name” to store the name on the device.
+   * The maximum length is 64 bytes. If none-ASCII character is used, it is suggested to
+   * BASE64 the name first and then use “set_name” to store it on device.
+   */
   public String getName() {
-    return name;
+    return text[DeviceProperty.NAME.getSlot()];
   }
 
   public void setName(String name) {
-    this.name = name;
+    text[DeviceProperty.NAME.getSlot()] = name;
   }
 
   public String getLocation() {
@@ -211,4 +263,227 @@ public class Device {
   public void setLocation(String location) {
     this.location = location;
   }
+
+  /**
+   * 0 means no color flow is running, 1 means a color flow is running.
+   */
+  public boolean isFlowing() {
+    return state[DeviceProperty.FLOWING.getSlot()] != 0;
+  }
+
+  public void setFlowing(boolean flowing) {
+    state[DeviceProperty.FLOWING.getSlot()] = flowing ? 1 : 0;
+  }
+
+  /**
+   * Remaining time of the sleep timer, in minutes. 0 means the timer is not set.
+   */
+  public int getDelayOff() {
+    return state[DeviceProperty.DELAYOFF.getSlot()];
+  }
+
+  public void setDelayOff(int delayOff) {
+    state[DeviceProperty.DELAYOFF.getSlot()] = delayOff;
+  }
+
+  /**
+   * Parameters of the running color flow, in the "start_cf" expression format.
+   */
+  public String getFlowParams() {
+    return text[DeviceProperty.FLOW_PARAMS.getSlot()];
+  }
+
+  public void setFlowParams(String flowParams) {
+    text[DeviceProperty.FLOW_PARAMS.getSlot()] = flowParams;
+  }
+
+  /**
+   * 1 means music mode is on, 0 means it is off.
+   */
+  public boolean isMusicOn() {
+    return state[DeviceProperty.MUSIC_ON.getSlot()] != 0;
+  }
+
+  public void setMusicOn(boolean musicOn) {
+    state[DeviceProperty.MUSIC_ON.getSlot()] = musicOn ? 1 : 0;
+  }
+
+  /**
+   * Power of the background light, for devices which have one.
+   */
+  public boolean isBackgroundPower() {
+    return state[DeviceProperty.BG_POWER.getSlot()] != 0;
+  }
+
+  public void setBackgroundPower(boolean backgroundPower) {
+    state[DeviceProperty.BG_POWER.getSlot()] = backgroundPower ? 1 : 0;
+  }
+
+  /**
+   * Whether a color flow runs on the background light.
+   */
+  public boolean isBackgroundFlowing() {
+    return state[DeviceProperty.BG_FLOWING.getSlot()] != 0;
+  }
+
+  public void setBackgroundFlowing(boolean backgroundFlowing) {
+    state[DeviceProperty.BG_FLOWING.getSlot()] = backgroundFlowing ? 1 : 0;
+  }
+
+  /**
+   * Parameters of the color flow running on the background light.
+   */
+  public String getBackgroundFlowParams() {
+    return text[DeviceProperty.BG_FLOW_PARAMS.getSlot()];
+  }
+
+  public void setBackgroundFlowParams(String backgroundFlowParams) {
+    text[DeviceProperty.BG_FLOW_PARAMS.getSlot()] = backgroundFlowParams;
+  }
+
+  /**
+   * Color temperature of the background light.
+   */
+  public int getBackgroundColorTemperature() {
+    return state[DeviceProperty.BG_CT.getSlot()];
+  }
+
+  public void setBackgroundColorTemperature(int backgroundColorTemperature) {
+    state[DeviceProperty.BG_CT.getSlot()] = backgroundColorTemperature;
+  }
+
+  /**
+   * Light mode of the background light.
+   */
+  public ColorMode getBackgroundColorMode() {
+    return ColorMode.find(state[DeviceProperty.BG_LMODE.getSlot()]);
+  }
+
+  public void setBackgroundColorMode(ColorMode backgroundColorMode) {
+    state[DeviceProperty.BG_LMODE.getSlot()] = backgroundColorMode == null ? 0 : backgroundColorMode.getValue();
+  }
+
+  /**
+   * Brightness of the background light.
+   */
+  public int getBackgroundBrightness() {
+    return state[DeviceProperty.BG_BRIGHT.getSlot()];
+  }
+
+  public void setBackgroundBrightness(int backgroundBrightness) {
+    state[DeviceProperty.BG_BRIGHT.getSlot()] = backgroundBrightness;
+  }
+
+  /**
+   * RGB value of the background light.
+   */
+  public int getBackgroundRgb() {
+    return state[DeviceProperty.BG_RGB.getSlot()];
+  }
+
+  public void setBackgroundRgb(int backgroundRgb) {
+    state[DeviceProperty.BG_RGB.getSlot()] = backgroundRgb;
+  }
+
+  /**
+   * Hue of the background light.
+   */
+  public int getBackgroundHue() {
+    return state[DeviceProperty.BG_HUE.getSlot()];
+  }
+
+  public void setBackgroundHue(int backgroundHue) {
+    state[DeviceProperty.BG_HUE.getSlot()] = backgroundHue;
+  }
+
+  /**
+   * Saturation of the background light.
+   */
+  public int getBackgroundSaturation() {
+    return state[DeviceProperty.BG_SAT.getSlot()];
+  }
+
+  public void setBackgroundSaturation(int backgroundSaturation) {
+    state[DeviceProperty.BG_SAT.getSlot()] = backgroundSaturation;
+  }
+
+  /**
+   * Brightness of the night light mode, for ceiling lights.
+   */
+  public int getNightLightBrightness() {
+    return state[DeviceProperty.NL_BR.getSlot()];
+  }
+
+  public void setNightLightBrightness(int nightLightBrightness) {
+    state[DeviceProperty.NL_BR.getSlot()] = nightLightBrightness;
+  }
+
+  /**
+   * 0 means the daylight mode is active, 1 means the moonlight (night light) mode is active. Ceiling lights only.
+   */
+  public int getActiveMode() {
+    return state[DeviceProperty.ACTIVE_MODE.getSlot()];
+  }
+
+  public void setActiveMode(int activeMode) {
+    state[DeviceProperty.ACTIVE_MODE.getSlot()] = activeMode;
+  }
+
+  /**
+   * @return Value of the property, boxed as {@link DeviceProperty#getType()}
+   */
+  Object get(DeviceProperty property) {
+    return property.isText() ? text[property.getSlot()] : property.toValue(state[property.getSlot()]);
+  }
+
+  /**
+   * @return Int representation of a numeric property, see {@link DeviceProperty#toState(Object)}
+   */
+  int getState(DeviceProperty property) {
+    return state[property.getSlot()];
+  }
+
+  String getText(DeviceProperty property) {
+    return text[property.getSlot()];
+  }
+
+  /**
+   * Set a property value
+   *
+   * @param property Changed property
+   * @param value    New value, of the type of the property
+   */
+  void set(DeviceProperty property, Object value) {
+    if(property.isText()) {
+      text[property.getSlot()] = (String) value;
+    } else {
+      state[property.getSlot()] = property.toState(value);
+    }
+  }
+
+  /**
+   * Apply a numeric value received from the device
+   *
+   * @throws IllegalArgumentException if the value is not valid for the property
+   */
+  void apply(DeviceProperty property, int value) {
+    if(property.isText()) {
+      text[property.getSlot()] = String.valueOf(value);
+    } else {
+      state[property.getSlot()] = property.parse(value);
+    }
+  }
+
+  /**
+   * Apply a string value received from the device
+   *
+   * @throws IllegalArgumentException if the value is not valid for the property
+   */
+  void apply(DeviceProperty property, String value) {
+    if(property.isText()) {
+      text[property.getSlot()] = property.parseText(value);
+    } else {
+      state[property.getSlot()] = property.parse(value);
+    }
+  }
 }
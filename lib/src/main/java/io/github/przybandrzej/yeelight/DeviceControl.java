@@ -1,84 +1,152 @@
 package io.github.przybandrzej.yeelight;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
-import io.github.przybandrzej.yeelight.exception.OutOfRangeException;
-import io.github.przybandrzej.yeelight.utils.Utils;
-
-import java.io.*;
-import java.lang.reflect.Type;
+import io.github.przybandrzej.yeelight.codec.CommandEncoder;
+import io.github.przybandrzej.yeelight.codec.MessageDecoder;
+import io.github.przybandrzej.yeelight.exception.BadResponseException;
+import io.github.przybandrzej.yeelight.exception.QuotaExceededException;
+import io.github.przybandrzej.yeelight.exception.UnsupportedMethodException;
+import io.github.przybandrzej.yeelight.metrics.DeviceMetrics;
+import io.github.przybandrzej.yeelight.metrics.MetricsListener;
+import org.reactivestreams.Publisher;
+
+import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Each device can hold up to 4 simultaneous connections. For each connection, there is a command message quota,
  * that is 60 commands per minute. There is also a total quota for all the LAN commands: 144
  * commands per minute (4 × 60 × 60%).
+ * <p>
+ * A DeviceControl is a lightweight handle on a single connection owned by a {@link ConnectionEngine}. Responses and
+ * notifications are processed on the engine's event loop threads, callbacks run on the engine's callback executor.
  */
-public class DeviceControl {
-  private static final int BRIGHT_MIN = 1;
-  private static final int BRIGHT_MAX = 100;
-  private static final int HUE_MIN = 0;
-  private static final int HUE_MAX = 359;
-  private static final int SATURATION_MIN = 1;
-  private static final int SATURATION_MAX = 100;
-  private static final int NAME_MAX_BYES = 64;
+public class DeviceControl extends AbstractDeviceControl {
   private static final int SOCKET_TIMEOUT = 5000;
-  private static final int COLOR_TEMPERATURE_MIN = 1700;
-  private static final int COLOR_TEMPERATURE_MAX = 6500;
-  private static final int RGB_MIN = 1;
-  private static final int RGB_MAX = 16777215;
-  private static final int PERCENTAGE_MIN = -100;
-  private static final int PERCENTAGE_MAX = 100;
-
-  private final Gson GSON = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().disableHtmlEscaping().create();
-  private final Type MAP_TYPE_TOKEN = new TypeToken<Map<String, Object>>() {
-  }.getType();
+  private static final int DEFAULT_MAX_QUEUED_COMMANDS = 256;
 
   private final Device device;
-  private Socket socket;
-  private BufferedReader socketReader;
-  private BufferedWriter socketWriter;
-  private YeelightEffect effect = YeelightEffect.SUDDEN;
-  private int duration = 0;
+  private final ConnectionEngine engine;
+  private volatile Connection connection;
+  private volatile Receiver receiver;
+  private volatile Connection musicConnection;
+  private CommandScheduler scheduler;
+  private final CommandEncoder encoder = new CommandEncoder();
+  private final CommandEncoder musicEncoder = new CommandEncoder();
+  private final CommandEncoder batchEncoder = new CommandEncoder();
   private Runnable onNotification = () -> {
   };
-  private final Map<Integer, CommandResult> resultMap = new ConcurrentHashMap<>();
-  private Thread listeningThread;
-  private final AtomicBoolean listeningThreadRun = new AtomicBoolean(false);
+  private final PendingRequests pending;
+  private final DeviceStateStore stateStore;
+  private final SerialExecutor callbacks;
+  private final DeviceMetrics metrics = new DeviceMetrics(this);
+  private final List<EventPublisher<PropertyChange<?>>> notificationPublishers = new CopyOnWriteArrayList<>();
+  private final List<EventPublisher<CommandResult>> resultPublishers = new CopyOnWriteArrayList<>();
+  private volatile boolean disconnecting = false;
+  /**
+   * Time each property was last received, by ordinal, 0 if it never was
+   */
+  private final AtomicLongArray receivedAt = new AtomicLongArray(DeviceProperty.VALUES.length);
+  private volatile long propertyCacheTtl = 0;
+  private volatile ReconnectPolicy reconnectPolicy = null;
+  private volatile DiscoveryService discovery = null;
+  private final boolean appliesNotifications;
 
   public DeviceControl(Device device) throws IOException {
+    this(device, ConnectionEngine.getDefault());
+  }
+
+  public DeviceControl(Device device, ConnectionEngine engine) throws IOException {
+    this(device, engine, new AtomicInteger(), true);
+  }
+
+  /**
+   * @param ids                  Id space of the connection
+   * @param appliesNotifications false if another connection to the device applies the property notifications, they
+   *                             are ignored then
+   */
+  DeviceControl(Device device, ConnectionEngine engine, AtomicInteger ids, boolean appliesNotifications)
+      throws IOException {
     this.device = device;
+    this.appliesNotifications = appliesNotifications;
+    this.engine = engine;
+    this.pending = new PendingRequests(ids, PendingRequests.DEFAULT_CAPACITY);
+    this.callbacks = new SerialExecutor(engine.getCallbackExecutor());
+    this.stateStore = new DeviceStateStore(device, callbacks);
     initConnection();
+    engine.register(metrics);
   }
 
+  @Override
   public Device getDevice() {
     return device;
   }
 
   /**
-   * Setter for Yeelight device effect
+   * Setter for the number of commands held back while the quotas are exhausted. Commands over this limit fail with
+   * {@link io.github.przybandrzej.yeelight.exception.QuotaExceededException}.
    *
-   * @param effect Effect to set (if null, 'sudden' is chosen)
+   * @param maxQueuedCommands Maximum number of queued commands (&gt;= 0)
    */
-  public void effect(YeelightEffect effect) {
-    this.effect = effect == null ? YeelightEffect.SUDDEN : effect;
+  public void maxQueuedCommands(int maxQueuedCommands) {
+    scheduler.setMaxQueued(Math.max(0, maxQueuedCommands));
+  }
+
+  @Override
+  public DeviceStateStore getStateStore() {
+    return stateStore;
+  }
+
+  @Override
+  public int getRemainingQuota() {
+    return scheduler.getRemainingQuota();
+  }
+
+  @Override
+  public int getQueuedCommands() {
+    return scheduler.getQueued();
+  }
+
+  @Override
+  public int getPendingRequests() {
+    return pending.size();
+  }
+
+  @Override
+  public long getTimeouts() {
+    return pending.getTimeouts();
+  }
+
+  @Override
+  public long getOrphanedResponses() {
+    return pending.getOrphaned();
   }
 
   /**
-   * Setter for Yeelight device effect duration
-   *
-   * @param duration Duration to set (&gt;= 0)
+   * @return Round trip times, error codes and the other measurements of this connection
    */
-  public void duration(int duration) {
-    this.duration = Math.max(0, duration);
+  public DeviceMetrics getMetrics() {
+    return metrics;
+  }
+
+  int getConnectionQuota() {
+    return scheduler.getConnectionRemaining();
   }
 
+  int getDeviceQuota() {
+    return scheduler.getDeviceRemaining();
+  }
+
+  @Override
   public void onDeviceStateChange(Runnable r) {
     if(r == null) {
       throw new NullPointerException("The device state change callback cannot be null.");
@@ -86,261 +154,482 @@ public class DeviceControl {
     this.onNotification = r;
   }
 
-  public void disconnect() throws IOException {
-    this.listeningThreadRun.set(false);
-    this.listeningThread.interrupt();
-    this.socket.close();
-    this.socketReader.close();
-    this.socketWriter.close();
+  @Override
+  public void propertyCacheTtl(long ttl, TimeUnit unit) {
+    this.propertyCacheTtl = Math.max(0, unit.toNanos(ttl));
   }
 
-  public int adjustBrightness(int percentage) throws OutOfRangeException, IOException {
-    if(!inRange(percentage, PERCENTAGE_MIN, PERCENTAGE_MAX)) {
-      throw new OutOfRangeException();
+  @Override
+  public CompletableFuture<Device> fetchPropertiesAsync(DeviceProperty... properties) throws IOException {
+    DeviceProperty[] requested = properties.length == 0 ? DeviceProperty.VALUES : properties;
+    long now = System.nanoTime();
+    long ttl = propertyCacheTtl;
+    List<DeviceProperty> stale = new ArrayList<>(requested.length);
+    for(DeviceProperty property : requested) {
+      long received = receivedAt.get(property.ordinal());
+      if(ttl == 0 || received == 0 || now - received >= ttl) {
+        stale.add(property);
+      }
     }
-    Command command = new Command("adjust_bright", percentage, duration);
-    sendCommand(command);
-    return command.getId();
+    if(stale.isEmpty()) {
+      return CompletableFuture.completedFuture(device);
+    }
+    Object[] names = new Object[stale.size()];
+    for(int i = 0; i < names.length; i++) {
+      names[i] = stale.get(i).getName();
+    }
+    return sendCommandAsync(new Command("get_prop", names)).thenApply(result -> {
+      if(!result.getOk()) {
+        throw new CompletionException(new BadResponseException());
+      }
+      Object[] values = result.getParams();
+      long changed = 0;
+      long received = System.nanoTime();
+      for(int i = 0; values != null && i < values.length && i < names.length; i++) {
+        DeviceProperty property = stale.get(i);
+        String value = String.valueOf(values[i]);
+        if(value.isEmpty()) {
+          // not supported by the device
+          continue;
+        }
+        try {
+          device.apply(property, value);
+        } catch(RuntimeException ignored) {
+          continue;
+        }
+        receivedAt.set(property.ordinal(), received);
+        changed |= 1L << property.ordinal();
+      }
+      stateStore.update(device, changed);
+      return device;
+    });
   }
 
-  public int adjustColorTemperature(int percentage) throws OutOfRangeException, IOException {
-    if(!inRange(percentage, PERCENTAGE_MIN, PERCENTAGE_MAX)) {
-      throw new OutOfRangeException();
+  @Override
+  public Publisher<PropertyChange<?>> notifications(int bufferSize, OverflowPolicy policy) {
+    EventPublisher<PropertyChange<?>> publisher = new EventPublisher<>(bufferSize, policy, PropertyChange::getProperty,
+        Threads.defaultDeliveryExecutor());
+    synchronized(notificationPublishers) {
+      // observed only once asked for, the store creates no change events for a device nobody listens to
+      if(notificationPublishers.isEmpty()) {
+        stateStore.observe(change -> notificationPublishers.forEach(it -> it.publish(change)));
+      }
+      notificationPublishers.add(publisher);
     }
-    Command command = new Command("adjust_ct", percentage, duration);
-    sendCommand(command);
-    return command.getId();
+    return publisher;
   }
 
-  public int adjustColor(int percentage) throws OutOfRangeException, IOException {
-    if(!inRange(percentage, PERCENTAGE_MIN, PERCENTAGE_MAX)) {
-      throw new OutOfRangeException();
-    }
-    Command command = new Command("adjust_color", percentage, duration);
-    sendCommand(command);
-    return command.getId();
+  @Override
+  public Publisher<CommandResult> results(int bufferSize, OverflowPolicy policy) {
+    return addResultPublisher(new EventPublisher<>(bufferSize, policy, result -> CommandResult.class,
+        Threads.defaultDeliveryExecutor()));
   }
 
-  public int toggle() throws IOException {
-    Command command = new Command("toggle");
-    sendCommand(command);
-    return command.getId();
+  EventPublisher<CommandResult> addResultPublisher(EventPublisher<CommandResult> publisher) {
+    resultPublishers.add(publisher);
+    return publisher;
   }
 
-  public int setBrightness(int brightness) throws OutOfRangeException, IOException {
-    if(!inRange(brightness, BRIGHT_MIN, BRIGHT_MAX)) {
-      throw new OutOfRangeException();
-    }
-    Command command = new Command("set_bright", brightness, effect.getValue(), duration);
-    sendCommand(command);
-    return command.getId();
+  @Override
+  public void autoReconnect(ReconnectPolicy policy, DiscoveryService discovery) {
+    this.discovery = discovery;
+    this.reconnectPolicy = policy;
+    scheduler.setMaxReplayed(policy == null ? -1 : policy.getMaxReplayedCommands());
   }
 
-  public int setPower(boolean power) throws IOException {
-    Command command = new Command("set_power", power ? "on" : "off");
-    sendCommand(command);
-    return command.getId();
+  /**
+   * @return true if the connection is up, false while it is being re-established or once it is closed
+   */
+  public boolean isConnected() {
+    return connection.isOpen();
   }
 
-  public int setColorTemperature(int value) throws IOException, OutOfRangeException {
-    if(!inRange(value, COLOR_TEMPERATURE_MIN, COLOR_TEMPERATURE_MAX)) {
-      throw new OutOfRangeException();
+  @Override
+  public void disconnect() throws IOException {
+    disconnecting = true;
+    IOException cause = new IOException("Connection closed");
+    Connection music = this.musicConnection;
+    if(music != null) {
+      music.close(cause);
+    }
+    Connection connection = this.connection;
+    if(connection.isOpen()) {
+      connection.close(cause);
+    } else {
+      // lost and not re-established yet
+      closed(cause);
     }
-    Command command = new Command("set_ct_abx", value, effect.getValue(), duration);
-    sendCommand(command);
-    return command.getId();
   }
 
-  public int setRgb(int r, int g, int b) throws OutOfRangeException, IOException {
-    int rgb = Utils.clampAndComputeRGBValue(r, g, b);
-    if(!inRange(rgb, RGB_MIN, RGB_MAX)) {
-      throw new OutOfRangeException();
+  /**
+   * Ask the device to connect to the music server and stream all following commands over that connection. In music
+   * mode commands are not limited by the quota, are not answered by the device and their futures complete as soon as
+   * they are written.
+   *
+   * @param server Music server to connect the device to
+   * @return Future completed once the device has connected to the server
+   * @throws IOException if the request cannot be sent
+   */
+  public CompletableFuture<Void> startMusicMode(MusicServer server) throws IOException {
+    if(musicConnection != null) {
+      return CompletableFuture.completedFuture(null);
     }
-    Command command = new Command("set_rgb", rgb, effect.getValue(), duration);
-    sendCommand(command);
-    return command.getId();
+    CompletableFuture<Connection> accepted = server.expect(getAddress().getAddress(), new Connection.Listener() {
+      @Override
+      public void onMessage(byte[] data, int offset, int length) {
+        // the device does not answer in music mode
+      }
+
+      @Override
+      public void onClose(IOException cause) {
+        musicConnection = null;
+      }
+    });
+    sendCommandAsync(new Command("set_music", 1, server.getHost(), server.getPort()))
+        .whenComplete((result, throwable) -> {
+          if(throwable != null) {
+            accepted.completeExceptionally(throwable);
+          } else if(!result.getOk()) {
+            accepted.completeExceptionally(new IOException("Music mode rejected: " + result.getError().getMessage()));
+          }
+        });
+    return accepted.thenAccept(music -> this.musicConnection = music);
   }
 
-  public int setHue(int hue) throws OutOfRangeException, IOException {
-    if(!inRange(hue, HUE_MIN, HUE_MAX)) {
-      throw new OutOfRangeException();
+  /**
+   * Close the music connection and switch back to regular, answered commands
+   *
+   * @return Result of the "set_music" command turning music mode off
+   * @throws IOException if the request cannot be sent
+   */
+  public CompletableFuture<CommandResult> stopMusicMode() throws IOException {
+    Connection music = this.musicConnection;
+    this.musicConnection = null;
+    if(music != null) {
+      music.close(new IOException("Music mode stopped"));
     }
-    Command command = new Command("set_hue", hue, effect.getValue(), duration);
-    sendCommand(command);
-    return command.getId();
+    return sendCommandAsync(new Command("set_music", 0));
+  }
+
+  public boolean isMusicMode() {
+    return musicConnection != null;
+  }
+
+  @Override
+  ConnectionEngine getEngine() {
+    return engine;
+  }
+
+  @Override
+  int nextId() {
+    return pending.nextId();
   }
 
-  public int setSaturation(int sat) throws OutOfRangeException, IOException {
-    if(!inRange(sat, SATURATION_MIN, SATURATION_MAX)) {
-      throw new OutOfRangeException();
+  @Override
+  CompletableFuture<CommandResult> dispatch(Command command, long timeout) throws IOException {
+    checkEngine();
+    command.setId(pending.nextId());
+    Connection music = this.musicConnection;
+    if(music != null && !command.getMethod().equals("set_music")) {
+      return stream(music, command);
+    }
+    CompletableFuture<CommandResult> future = pending.register(command.getId(), timeout);
+    if(future.isDone()) {
+      // too many commands awaiting a response
+      return future;
     }
-    Command command = new Command("set_sat", sat, effect.getValue(), duration);
-    sendCommand(command);
-    return command.getId();
+    try {
+      scheduler.submit(command, future, timeout);
+    } catch(IOException e) {
+      future.completeExceptionally(e);
+      throw e;
+    }
+    return future;
   }
 
-  public int setHsv(int hue, int saturation) throws OutOfRangeException, IOException {
-    if(!inRange(saturation, SATURATION_MIN, SATURATION_MAX)) {
-      throw new OutOfRangeException();
+  @Override
+  List<CompletableFuture<CommandResult>> dispatchBatch(List<Command> commands, long timeout) throws IOException {
+    checkEngine();
+    List<CompletableFuture<CommandResult>> futures = new ArrayList<>(commands.size());
+    // music mode has no quota and no answers, each command is streamed as it is
+    int granted = musicConnection != null ? 0 : scheduler.tryAcquire(commands.size());
+    if(granted > 0) {
+      synchronized(batchEncoder) {
+        batchEncoder.reset();
+        for(int i = 0; i < granted; i++) {
+          Command command = commands.get(i);
+          command.setId(pending.nextId());
+          CompletableFuture<CommandResult> future = pending.register(command.getId(), timeout);
+          futures.add(future);
+          if(future.isDone()) {
+            continue;
+          }
+          written(command.getId(), future, timeout);
+          batchEncoder.append(command);
+        }
+        try {
+          connection.write(batchEncoder.buffer());
+        } catch(IOException e) {
+          futures.forEach(future -> future.completeExceptionally(e));
+          throw e;
+        }
+      }
+    }
+    for(int i = granted; i < commands.size(); i++) {
+      futures.add(dispatch(commands.get(i), timeout));
+    }
+    return futures;
+  }
+
+  @Override
+  PreparedCommand prepare(Command command, long timeout)
+      throws IOException, QuotaExceededException, UnsupportedMethodException {
+    checkSupported(command);
+    command.setId(pending.nextId());
+    Connection music = this.musicConnection;
+    if(music != null && !command.getMethod().equals("set_music")) {
+      return new PreparedCommand(music, new CommandEncoder().encode(command), streamed(), metrics::recordCommand);
+    }
+    if(!connection.isOpen()) {
+      throw new IOException("Connection closed");
+    }
+    if(!scheduler.tryAcquire()) {
+      throw new QuotaExceededException();
     }
-    if(!inRange(hue, HUE_MIN, HUE_MAX)) {
-      throw new OutOfRangeException();
+    int id = command.getId();
+    CompletableFuture<CommandResult> future = pending.register(id, timeout);
+    if(future.isDone()) {
+      throw new QuotaExceededException();
     }
-    Command command = new Command("set_hsv", hue, saturation, effect.getValue(), duration);
-    sendCommand(command);
-    return command.getId();
+    return new PreparedCommand(connection, new CommandEncoder().encode(command), future,
+        () -> written(id, future, timeout));
   }
 
-  public int setName(String name) throws OutOfRangeException, IOException {
-    String encodedName = Utils.encodeName(name);
-    if(encodedName.getBytes().length > NAME_MAX_BYES) {
-      throw new OutOfRangeException();
+  private CompletableFuture<CommandResult> stream(Connection music, Command command) throws IOException {
+    synchronized(musicEncoder) {
+      music.write(musicEncoder.encode(command));
     }
-    Command command = new Command("set_name", encodedName);
-    sendCommand(command);
-    return command.getId();
+    metrics.recordCommand();
+    return streamed();
+  }
+
+  /**
+   * @return Result of a command streamed in music mode, which the device does not answer
+   */
+  private static CompletableFuture<CommandResult> streamed() {
+    CommandResult commandResult = new CommandResult();
+    commandResult.setOk(true);
+    return CompletableFuture.completedFuture(commandResult);
+  }
+
+  private void transmit(Command command, CompletableFuture<CommandResult> future, long timeout) throws IOException {
+    // marked as written only once the write went through, a command whose write failed can be replayed
+    connection.write(encoder.encode(command));
+    written(command.getId(), future, timeout);
   }
 
-  public int setCurrentSettingsDefault() throws IOException {
-    Command command = new Command("set_default");
-    sendCommand(command);
-    return command.getId();
+  /**
+   * Start waiting for the response of a command handed to the socket
+   */
+  private void written(int id, CompletableFuture<CommandResult> future, long timeout) {
+    pending.written(id, System.nanoTime());
+    metrics.recordCommand();
+    armTimeout(id, future, timeout);
   }
 
-  public CommandResult awaitAnswer(int commandId) {
-    do {
-      CommandResult commandResult = resultMap.get(commandId);
-      if(commandResult != null) {
-        resultMap.remove(commandId);
-        return commandResult;
+  private void armTimeout(int id, CompletableFuture<CommandResult> future, long timeout) {
+    if(timeout > 0) {
+      ScheduledFuture<?> timeoutTask;
+      try {
+        timeoutTask = engine.schedule(() -> pending.expire(id, future), timeout, TimeUnit.MILLISECONDS);
+      } catch(RejectedExecutionException e) {
+        // the engine closed while the command was being written, the response would not be read anyway
+        future.completeExceptionally(new IOException("Connection engine closed"));
+        return;
       }
-    } while(true);
+      future.whenComplete((result, throwable) -> timeoutTask.cancel(false));
+    }
   }
 
-  public void sendCommand(Command command) throws IOException {
-    String jsonCommand = this.GSON.toJson(command) + "\r\n";
-    send(jsonCommand);
+  private void checkEngine() throws IOException {
+    if(engine.isClosed()) {
+      throw new IOException("Connection engine closed");
+    }
   }
 
-  private boolean inRange(int val, int min, int max) {
-    return !(val < min || val > max);
+  private InetSocketAddress getAddress() {
+    String[] location = device.getLocation().split(":");
+    return new InetSocketAddress(location[1].substring(2), Integer.parseInt(location[2]));
   }
 
   private void initConnection() throws IOException {
-    String[] location = device.getLocation().split(":");
-    InetSocketAddress inetSocketAddress = new InetSocketAddress(location[1].substring(2), Integer.parseInt(location[2]));
-    this.socket = new Socket();
-    this.socket.connect(inetSocketAddress, SOCKET_TIMEOUT);
-    this.socket.setSoTimeout(SOCKET_TIMEOUT);
-    this.socketReader = new BufferedReader(new InputStreamReader(this.socket.getInputStream()));
-    this.socketWriter = new BufferedWriter(new OutputStreamWriter(this.socket.getOutputStream()));
-    this.listeningThreadRun.set(true);
-    this.listeningThread = new Thread(() -> {
-      while(this.listeningThreadRun.get()) {
-        try {
-          this.listen();
-        } catch(IOException e) {
-          throw new RuntimeException(e);
-        }
-      }
-    });
-    this.listeningThread.start();
+    InetSocketAddress inetSocketAddress = getAddress();
+    TokenBucket deviceQuota = engine.deviceQuota(device.getId() == null ? device.getLocation() : device.getId());
+    this.scheduler = new CommandScheduler(new TokenBucket(TokenBucket.CONNECTION_QUOTA, engine.getQuotaWindow()),
+        deviceQuota, engine, DEFAULT_MAX_QUEUED_COMMANDS, this::transmit);
+    this.receiver = new Receiver();
+    this.connection = engine.connect(inetSocketAddress, SOCKET_TIMEOUT, receiver);
   }
 
-  private void listen() throws IOException {
-    if(!this.listeningThreadRun.get() || Thread.currentThread().isInterrupted() || !this.socketReader.ready()) {
+  private void connectionLost(IOException cause) {
+    ReconnectPolicy policy = this.reconnectPolicy;
+    if(policy == null || disconnecting || engine.isClosed()) {
+      closed(cause);
       return;
     }
-    String data = socketReader.readLine();
-    if(data == null) {
+    // the commands in flight may or may not have been applied, only the unsent ones are replayed
+    scheduler.pause(cause);
+    pending.failWritten(cause);
+    Connection music = this.musicConnection;
+    this.musicConnection = null;
+    if(music != null) {
+      music.close(cause);
+    }
+    scheduleReconnect(policy, 0, cause);
+  }
+
+  private void scheduleReconnect(ReconnectPolicy policy, int attempt, IOException cause) {
+    if(disconnecting) {
       return;
     }
-    Map<String, Object> result = GSON.fromJson(data, MAP_TYPE_TOKEN);
-    Object idObj = result.get("id");
-    if(idObj == null) {
-      processNotification(result);
-      this.onNotification.run();
+    // a closed engine is final, its timer does not take the attempt either
+    if(engine.isClosed() || policy.getMaxAttempts() > 0 && attempt >= policy.getMaxAttempts()) {
+      closed(cause);
       return;
     }
-    int id = (int) Double.parseDouble(idObj.toString());
-    CommandResult commandResult = new CommandResult();
-    Object err = result.get("error");
-    if(err != null) {
-      CommandResult.Error error = new CommandResult.Error();
-      error.setCode(Integer.parseInt(((Map<String, Object>) err).get("code").toString()));
-      error.setMessage(((Map<String, Object>) err).get("message").toString());
-      commandResult.setError(error);
-      commandResult.setOk(false);
-      resultMap.put(id, commandResult);
+    // connecting blocks, so it does not run on the timer thread
+    try {
+      engine.schedule(() -> Threads.defaultDeliveryExecutor().execute(() -> reconnect(policy, attempt)),
+          policy.delay(attempt), TimeUnit.NANOSECONDS);
+    } catch(RejectedExecutionException e) {
+      // the engine closed meanwhile
+      closed(cause);
+    }
+  }
+
+  private void reconnect(ReconnectPolicy policy, int attempt) {
+    if(disconnecting) {
       return;
     }
-    List<Object> params = (List<Object>) result.get("result");
-    if(params.get(0) instanceof String && params.get(0).equals("ok")) {
-      commandResult.setOk(true);
-      resultMap.put(id, commandResult);
+    try {
+      DiscoveryService discovery = this.discovery;
+      Device discovered = discovery == null || device.getId() == null ? null : discovery.getDevice(device.getId());
+      if(discovered != null && discovered.getLocation() != null) {
+        device.setLocation(discovered.getLocation());
+      }
+      Receiver receiver = new Receiver();
+      this.receiver = receiver;
+      this.connection = engine.connect(getAddress(), SOCKET_TIMEOUT, receiver);
+    } catch(IOException | RuntimeException e) {
+      scheduleReconnect(policy, attempt + 1, e instanceof IOException ? (IOException) e : new IOException(e));
       return;
     }
-    Map<String, Integer> cronRes = (Map<String, Integer>) params.get(0);
-    Integer type = cronRes.get("type");
-    if(type != null) {
-      CommandResult.CronSettings cron = new CommandResult.CronSettings();
-      cron.setType(type);
-      cron.setDelay(cronRes.get("delay"));
-      cron.setMix(cronRes.get("delay"));
-      commandResult.setCronSettings(cron);
-      commandResult.setOk(true);
-      resultMap.put(id, commandResult);
+    if(disconnecting) {
+      connection.close(new IOException("Connection closed"));
       return;
     }
-    commandResult.setOk(true);
-    commandResult.setParams(params.toArray());
-    resultMap.put(id, commandResult);
+    metrics.recordReconnect();
+    scheduler.resume();
   }
 
-  private void send(String data) throws IOException {
-    this.socketWriter.write(data);
-    this.socketWriter.flush();
+  /**
+   * Fail everything for good, the connection will not be re-established
+   */
+  private void closed(IOException cause) {
+    engine.unregister(metrics);
+    scheduler.close(cause);
+    pending.failAll(cause);
+    Throwable failure = disconnecting ? null : cause;
+    notificationPublishers.forEach(publisher -> publisher.terminate(failure));
+    resultPublishers.forEach(publisher -> publisher.terminate(failure));
   }
 
-  private void processNotification(Map<String, Object> result) {
-    String method = result.get("method").toString();
-    if(!method.equals("props")) {
-      // currently only "props" is supported
-      return;
+  /**
+   * Decodes the messages of the connection, on the event loop thread
+   */
+  private class Receiver implements Connection.Listener, MessageDecoder.Handler {
+    private final MessageDecoder decoder = new MessageDecoder();
+    /**
+     * Bit mask of the properties changed by the notification being decoded
+     */
+    private long changed;
+
+    @Override
+    public void onMessage(byte[] data, int offset, int length) {
+      try {
+        decoder.decode(data, offset, length, this);
+      } catch(BadResponseException ignored) {
+        // not a message of the Yeelight protocol
+      }
+    }
+
+    @Override
+    public void onClose(IOException cause) {
+      if(this == receiver) {
+        connectionLost(cause);
+      }
     }
-    Map<String, Object> props = (Map<String, Object>) result.get("params");
-    setProps(props);
-  }
-
-  private void setProps(Map<String, Object> props) {
-    for(Map.Entry<String, Object> property : props.entrySet()) {
-      String prop = property.getKey();
-      if(prop.equals("name")) {
-        device.setName(Utils.decodeName(property.getValue().toString()));
-      } else if(prop.equals("power")) {
-        device.setPower(property.getValue().toString().equals("on"));
-      } else if(prop.equals("bright")) {
-        device.setBrightness((int) Double.parseDouble(property.getValue().toString()));
-      } else if(prop.equals("ct")) {
-        device.setColorTemperature((int) Double.parseDouble(property.getValue().toString()));
-      } else if(prop.equals("rgb")) {
-        device.setRgb(Integer.parseInt(property.getValue().toString()));
-      } else if(prop.equals("hue")) {
-        device.setHue(Integer.parseInt(property.getValue().toString()));
-      } else if(prop.equals("sat")) {
-        device.setSaturation(Integer.parseInt(property.getValue().toString()));
-      } else if(prop.equals("color_mode")) {
-        device.setColorMode(ColorMode.valueOf((int) Double.parseDouble(property.getValue().toString())));
-      } else if(prop.equals("flowing")) {
-
-      } else if(prop.equals("delayoff")) {
-
-      } else if(prop.equals("flow_params")) {
-
-      } else if(prop.equals("music_on")) {
 
+    @Override
+    public void onResult(int id, CommandResult result) {
+      long roundTrip = pending.complete(id, result, System.nanoTime());
+      metrics.recordResponse(roundTrip);
+      MetricsListener[] listeners = engine.getMetricsListeners();
+      if(roundTrip >= 0) {
+        for(MetricsListener listener : listeners) {
+          listener.onRoundTrip(metrics, roundTrip);
+        }
+      }
+      CommandResult.Error error = result.getError();
+      if(error != null) {
+        metrics.recordError(error.getCode());
+        for(MetricsListener listener : listeners) {
+          listener.onError(metrics, error.getCode());
+        }
       }
-      // todo add rest of the props
+      resultPublishers.forEach(publisher -> publisher.publish(result));
+    }
+
+    @Override
+    public void onProperty(String name, int value) {
+      DeviceProperty property = appliesNotifications ? DeviceProperty.get(name) : null;
+      if(property != null) {
+        try {
+          device.apply(property, value);
+          changed(property);
+        } catch(RuntimeException ignored) {
+          // not a valid value of the property
+        }
+      }
+    }
+
+    @Override
+    public void onProperty(String name, String value) {
+      DeviceProperty property = appliesNotifications ? DeviceProperty.get(name) : null;
+      if(property != null) {
+        try {
+          device.apply(property, value);
+          changed(property);
+        } catch(RuntimeException ignored) {
+          // not a valid value of the property
+        }
+      }
+    }
+
+    @Override
+    public void onNotification() {
+      metrics.recordNotification();
+      if(!appliesNotifications) {
+        return;
+      }
+      stateStore.update(device, changed);
+      changed = 0;
+      callbacks.execute(onNotification);
+    }
+
+    private void changed(DeviceProperty property) {
+      receivedAt.set(property.ordinal(), System.nanoTime());
+      changed |= 1L << property.ordinal();
     }
   }
 }
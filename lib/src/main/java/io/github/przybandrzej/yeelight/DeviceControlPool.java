@@ -0,0 +1,242 @@
+package io.github.przybandrzej.yeelight;
+
+import io.github.przybandrzej.yeelight.exception.QuotaExceededException;
+import io.github.przybandrzej.yeelight.exception.UnsupportedMethodException;
+import org.reactivestreams.Publisher;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Controls a device over several simultaneous connections. Every connection has its own quota of 60 commands per
+ * minute, while all of them share the device quota of 144 commands per minute, so a pool of 3 or 4 connections
+ * can reach the device limit that a single connection cannot.
+ */
+public class DeviceControlPool extends AbstractDeviceControl {
+
+  /**
+   * Number of simultaneous connections a device accepts
+   */
+  public static final int MAX_CONNECTIONS = 4;
+
+  private final Device device;
+  private final DeviceControl[] connections;
+  private final PoolStrategy strategy;
+  private final AtomicInteger next = new AtomicInteger();
+
+  public DeviceControlPool(Device device, int connections) throws IOException {
+    this(device, connections, PoolStrategy.LEAST_LOADED, ConnectionEngine.getDefault());
+  }
+
+  /**
+   * @param device      Device to control
+   * @param connections Number of connections to open (1 - {@link #MAX_CONNECTIONS}), sharing one command id space
+   * @param strategy    How commands are spread over the connections
+   * @param engine      Engine owning the connections
+   * @throws IOException if a connection cannot be opened
+   */
+  public DeviceControlPool(Device device, int connections, PoolStrategy strategy, ConnectionEngine engine) throws IOException {
+    if(connections < 1 || connections > MAX_CONNECTIONS) {
+      throw new IllegalArgumentException("A device accepts from 1 to " + MAX_CONNECTIONS + " connections.");
+    }
+    this.device = device;
+    this.strategy = strategy;
+    this.connections = new DeviceControl[connections];
+    AtomicInteger ids = new AtomicInteger();
+    try {
+      // every connection is told about the property changes, the first one alone applies them to the shared device
+      for(int i = 0; i < connections; i++) {
+        this.connections[i] = new DeviceControl(device, engine, ids, i == 0);
+      }
+    } catch(IOException e) {
+      disconnect();
+      throw e;
+    }
+  }
+
+  @Override
+  public Device getDevice() {
+    return device;
+  }
+
+  public int getConnections() {
+    return connections.length;
+  }
+
+  @Override
+  public int getRemainingQuota() {
+    int remaining = 0;
+    for(DeviceControl connection : connections) {
+      remaining += connection.getConnectionQuota();
+    }
+    return Math.min(remaining, connections[0].getDeviceQuota());
+  }
+
+  @Override
+  public int getQueuedCommands() {
+    int queued = 0;
+    for(DeviceControl connection : connections) {
+      queued += connection.getQueuedCommands();
+    }
+    return queued;
+  }
+
+  @Override
+  public int getPendingRequests() {
+    int pending = 0;
+    for(DeviceControl connection : connections) {
+      pending += connection.getPendingRequests();
+    }
+    return pending;
+  }
+
+  @Override
+  public long getTimeouts() {
+    long timeouts = 0;
+    for(DeviceControl connection : connections) {
+      timeouts += connection.getTimeouts();
+    }
+    return timeouts;
+  }
+
+  @Override
+  public long getOrphanedResponses() {
+    long orphaned = 0;
+    for(DeviceControl connection : connections) {
+      orphaned += connection.getOrphanedResponses();
+    }
+    return orphaned;
+  }
+
+  /**
+   * The device notifies every connection about a change, so the callback is only attached to the first one.
+   *
+   * @param r Callback for when the device has received an update
+   */
+  @Override
+  public void onDeviceStateChange(Runnable r) {
+    connections[0].onDeviceStateChange(r);
+  }
+
+  /**
+   * Cached by the first connection, which also receives the notifications keeping the cache fresh.
+   */
+  @Override
+  public void propertyCacheTtl(long ttl, TimeUnit unit) {
+    connections[0].propertyCacheTtl(ttl, unit);
+  }
+
+  @Override
+  public CompletableFuture<Device> fetchPropertiesAsync(DeviceProperty... properties) throws IOException {
+    return connections[0].fetchPropertiesAsync(properties);
+  }
+
+  /**
+   * Published by the first connection, like {@link #onDeviceStateChange(Runnable)}.
+   */
+  @Override
+  public Publisher<PropertyChange<?>> notifications(int bufferSize, OverflowPolicy policy) {
+    return connections[0].notifications(bufferSize, policy);
+  }
+
+  /**
+   * Publishes the results of all the connections.
+   */
+  @Override
+  public Publisher<CommandResult> results(int bufferSize, OverflowPolicy policy) {
+    EventPublisher<CommandResult> publisher = new EventPublisher<>(bufferSize, policy, result -> CommandResult.class,
+        Threads.defaultDeliveryExecutor());
+    for(DeviceControl connection : connections) {
+      connection.addResultPublisher(publisher);
+    }
+    return publisher;
+  }
+
+  /**
+   * Kept by the first connection, like {@link #onDeviceStateChange(Runnable)}.
+   */
+  @Override
+  public DeviceStateStore getStateStore() {
+    return connections[0].getStateStore();
+  }
+
+  @Override
+  public void autoReconnect(ReconnectPolicy policy, DiscoveryService discovery) {
+    for(DeviceControl connection : connections) {
+      connection.autoReconnect(policy, discovery);
+    }
+  }
+
+  @Override
+  public void disconnect() throws IOException {
+    IOException failure = null;
+    for(DeviceControl connection : connections) {
+      if(connection == null) {
+        continue;
+      }
+      try {
+        connection.disconnect();
+      } catch(IOException e) {
+        failure = e;
+      }
+    }
+    if(failure != null) {
+      throw failure;
+    }
+  }
+
+  @Override
+  ConnectionEngine getEngine() {
+    return connections[0].getEngine();
+  }
+
+  /**
+   * All the connections share the same id space.
+   */
+  @Override
+  int nextId() {
+    return connections[0].nextId();
+  }
+
+  @Override
+  CompletableFuture<CommandResult> dispatch(Command command, long timeout) throws IOException {
+    return select().dispatch(command, timeout);
+  }
+
+  /**
+   * The whole batch is written on a single connection.
+   */
+  @Override
+  List<CompletableFuture<CommandResult>> dispatchBatch(List<Command> commands, long timeout) throws IOException {
+    return select().dispatchBatch(commands, timeout);
+  }
+
+  @Override
+  PreparedCommand prepare(Command command, long timeout)
+      throws IOException, QuotaExceededException, UnsupportedMethodException {
+    return select().prepare(command, timeout);
+  }
+
+  private DeviceControl select() {
+    if(strategy == PoolStrategy.ROUND_ROBIN) {
+      return connections[Math.floorMod(next.getAndIncrement(), connections.length)];
+    }
+    DeviceControl selected = connections[0];
+    int selectedQueued = selected.getQueuedCommands();
+    int selectedQuota = selected.getConnectionQuota();
+    for(int i = 1; i < connections.length; i++) {
+      DeviceControl candidate = connections[i];
+      int queued = candidate.getQueuedCommands();
+      int quota = candidate.getConnectionQuota();
+      if(queued < selectedQueued || (queued == selectedQueued && quota > selectedQuota)) {
+        selected = candidate;
+        selectedQueued = queued;
+        selectedQuota = quota;
+      }
+    }
+    return selected;
+  }
+}
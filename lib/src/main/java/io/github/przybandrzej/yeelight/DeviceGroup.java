@@ -0,0 +1,319 @@
+package io.github.przybandrzej.yeelight;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Sends a command to many devices at once, e.g. to switch a whole room. The command is handed to every device before
+ * any answer is awaited, so the group takes about one round trip instead of one per device, and the results are
+ * collected into a single {@link GroupResult}. Devices which do not answer before the group deadline are reported as
+ * failed with a {@link TimeoutException}.
+ */
+public class DeviceGroup {
+  private static final long DEFAULT_DEADLINE = 5000;
+  private static final long RELEASE_TIMEOUT = 100;
+
+  private final List<AbstractDeviceControl> controls;
+  private long deadline = DEFAULT_DEADLINE;
+
+  /**
+   * @param controls Controls of the devices, one per device as the results are keyed by device
+   */
+  public DeviceGroup(Collection<? extends AbstractDeviceControl> controls) {
+    if(controls.isEmpty()) {
+      throw new IllegalArgumentException("A device group cannot be empty.");
+    }
+    Set<Device> devices = new HashSet<>();
+    for(AbstractDeviceControl control : controls) {
+      if(!devices.add(control.getDevice())) {
+        throw new IllegalArgumentException("A device group cannot control a device twice.");
+      }
+    }
+    this.controls = Collections.unmodifiableList(new ArrayList<>(controls));
+  }
+
+  /**
+   * Setter for the time the whole group has to answer
+   *
+   * @param deadline Deadline, counted from the moment the command is sent (&gt; 0)
+   * @param unit     Unit of the deadline
+   */
+  public void deadline(long deadline, TimeUnit unit) {
+    if(deadline <= 0) {
+      throw new IllegalArgumentException("The group deadline must be positive.");
+    }
+    this.deadline = unit.toMillis(deadline);
+  }
+
+  public List<AbstractDeviceControl> getControls() {
+    return controls;
+  }
+
+  /**
+   * Send the same command to every device of the group
+   *
+   * @param command Command to send, copied for each device
+   * @return Future completed once every device has answered or the deadline has elapsed, never exceptionally
+   */
+  public CompletableFuture<GroupResult> send(Command command) {
+    return send(control -> command);
+  }
+
+  /**
+   * Send a command of its own to each device of the group, e.g. to set a gradient across a room
+   *
+   * @param commandFor Command for a device, null to leave the device out
+   * @return Future completed once every device has answered or the deadline has elapsed, never exceptionally
+   */
+  public CompletableFuture<GroupResult> send(Function<? super AbstractDeviceControl, Command> commandFor) {
+    Map<Device, CompletableFuture<CommandResult>> futures = new LinkedHashMap<>();
+    for(AbstractDeviceControl control : controls) {
+      Command command = commandFor.apply(control);
+      if(command == null) {
+        continue;
+      }
+      CompletableFuture<CommandResult> future;
+      try {
+        future = control.sendCommandAsync(copy(command), deadline, TimeUnit.MILLISECONDS);
+      } catch(Exception e) {
+        future = failed(e);
+      }
+      futures.put(control.getDevice(), future);
+    }
+    return aggregate(futures, null);
+  }
+
+  /**
+   * Send the same command to every device of the group so that the devices change as close together as possible
+   *
+   * @param command Command to send, copied for each device
+   * @return Future completed once every device has answered or the deadline has elapsed, never exceptionally
+   * @see #sendSynchronized(Function)
+   */
+  public CompletableFuture<GroupResult> sendSynchronized(Command command) {
+    return sendSynchronized(control -> command);
+  }
+
+  /**
+   * Send a command to each device of the group so that the devices change as close together as possible. All the
+   * commands are encoded, registered and granted their quota tokens first; each event loop is then handed its frames
+   * in a single task which writes them together. The time between the first and the last write is reported by
+   * {@link GroupResult#getDispatchSkew(TimeUnit)}.
+   * <p>
+   * Commands are not queued: a device without quota left at that moment fails with
+   * {@link io.github.przybandrzej.yeelight.exception.QuotaExceededException}. Neither the call nor the event loops
+   * wait for each other. A device whose event loop does not write within 100 ms, e.g. because it is busy, is still
+   * sent its command, but is reported by {@link GroupResult#getUnsynchronized()} instead of being counted in the skew.
+   *
+   * @param commandFor Command for a device, null to leave the device out
+   * @return Future completed once every device has answered or the deadline has elapsed, never exceptionally
+   */
+  public CompletableFuture<GroupResult> sendSynchronized(Function<? super AbstractDeviceControl, Command> commandFor) {
+    Map<Device, CompletableFuture<CommandResult>> futures = new LinkedHashMap<>();
+    Map<EventLoop, Map<Device, PreparedCommand>> byLoop = new LinkedHashMap<>();
+    for(AbstractDeviceControl control : controls) {
+      Command command = commandFor.apply(control);
+      if(command == null) {
+        continue;
+      }
+      try {
+        PreparedCommand prepared = control.prepare(copy(command), deadline);
+        byLoop.computeIfAbsent(prepared.getLoop(), loop -> new LinkedHashMap<>()).put(control.getDevice(), prepared);
+        futures.put(control.getDevice(), prepared.getFuture());
+      } catch(Exception e) {
+        futures.put(control.getDevice(), failed(e));
+      }
+    }
+    return aggregate(futures, release(byLoop));
+  }
+
+  /**
+   * Hand the prepared frames of each event loop over in a single task which writes them right away. The calling loop,
+   * if any, writes its own frames last, once the other loops have their task.
+   */
+  private Dispatch release(Map<EventLoop, Map<Device, PreparedCommand>> byLoop) {
+    Dispatch dispatch = new Dispatch(byLoop);
+    Collection<PreparedCommand> inline = null;
+    EventLoop inlineLoop = null;
+    for(Map.Entry<EventLoop, Map<Device, PreparedCommand>> entry : byLoop.entrySet()) {
+      EventLoop loop = entry.getKey();
+      Collection<PreparedCommand> frames = entry.getValue().values();
+      if(loop.inEventLoop()) {
+        inlineLoop = loop;
+        inline = frames;
+        continue;
+      }
+      loop.execute(() -> dispatch.released(loop, write(frames)));
+    }
+    if(inline != null) {
+      dispatch.released(inlineLoop, write(inline));
+    }
+    if(!dispatch.isDone()) {
+      ScheduledFuture<?> timeout = controls.get(0).getEngine().schedule(dispatch::close, RELEASE_TIMEOUT,
+          TimeUnit.MILLISECONDS);
+      dispatch.whenDone(() -> timeout.cancel(false));
+    }
+    return dispatch;
+  }
+
+  /**
+   * @return Times of the first and the last successful write
+   */
+  private static long[] write(Collection<PreparedCommand> frames) {
+    long first = Long.MAX_VALUE;
+    long last = Long.MIN_VALUE;
+    PreparedCommand[] prepared = frames.toArray(new PreparedCommand[0]);
+    long[] times = new long[prepared.length];
+    for(int i = 0; i < times.length; i++) {
+      times[i] = prepared[i].write();
+    }
+    for(int i = 0; i < times.length; i++) {
+      if(times[i] >= 0) {
+        prepared[i].written();
+        first = Math.min(first, times[i]);
+        last = Math.max(last, times[i]);
+      }
+    }
+    return new long[]{first, last};
+  }
+
+  /**
+   * @param dispatch Release of a synchronized send, null for the others
+   */
+  private CompletableFuture<GroupResult> aggregate(Map<Device, CompletableFuture<CommandResult>> futures,
+                                                   Dispatch dispatch) {
+    CompletableFuture<GroupResult> group = new CompletableFuture<>();
+    ScheduledFuture<?> deadlineTask = controls.get(0).getEngine()
+        .schedule(() -> group.complete(collect(futures, dispatch)), deadline, TimeUnit.MILLISECONDS);
+    List<CompletableFuture<?>> awaited = new ArrayList<>(futures.values());
+    if(dispatch != null) {
+      // the results can come in before every loop has reported its writes
+      awaited.add(dispatch.done);
+    }
+    CompletableFuture.allOf(awaited.toArray(new CompletableFuture<?>[0]))
+        .whenComplete((ignored, throwable) -> {
+          deadlineTask.cancel(false);
+          group.complete(collect(futures, dispatch));
+        });
+    return group;
+  }
+
+  /**
+   * The command ID is set when sending, so each device gets its own instance
+   */
+  private static Command copy(Command command) {
+    return new Command(command.getMethod(), command.getParams());
+  }
+
+  private static CompletableFuture<CommandResult> failed(Exception e) {
+    CompletableFuture<CommandResult> future = new CompletableFuture<>();
+    future.completeExceptionally(e);
+    return future;
+  }
+
+  private static GroupResult collect(Map<Device, CompletableFuture<CommandResult>> futures, Dispatch dispatch) {
+    Map<Device, CommandResult> results = new LinkedHashMap<>();
+    Map<Device, Throwable> failures = new LinkedHashMap<>();
+    futures.forEach((device, future) -> {
+      if(!future.isDone()) {
+        failures.put(device, new TimeoutException());
+        return;
+      }
+      try {
+        results.put(device, future.join());
+      } catch(CompletionException e) {
+        failures.put(device, e.getCause());
+      } catch(CancellationException e) {
+        failures.put(device, e);
+      }
+    });
+    if(dispatch == null) {
+      return new GroupResult(results, failures, -1, Collections.emptySet());
+    }
+    dispatch.close();
+    return new GroupResult(results, failures, dispatch.getSkew(), dispatch.getUnsynchronized());
+  }
+
+  /**
+   * Writes of a synchronized send. Once closed, a loop writing late is no longer counted in the skew and its devices
+   * are reported as unsynchronized.
+   */
+  private static final class Dispatch {
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private final Map<EventLoop, Set<Device>> waiting = new HashMap<>();
+    private final Set<Device> unsynchronized = new HashSet<>();
+    private long first = Long.MAX_VALUE;
+    private long last = Long.MIN_VALUE;
+    private boolean closed;
+
+    private Dispatch(Map<EventLoop, Map<Device, PreparedCommand>> byLoop) {
+      byLoop.forEach((loop, frames) -> waiting.put(loop, frames.keySet()));
+      if(waiting.isEmpty()) {
+        close();
+      }
+    }
+
+    void released(EventLoop loop, long[] span) {
+      synchronized(this) {
+        if(closed) {
+          return;
+        }
+        waiting.remove(loop);
+        first = Math.min(first, span[0]);
+        last = Math.max(last, span[1]);
+        if(!waiting.isEmpty()) {
+          return;
+        }
+      }
+      close();
+    }
+
+    /**
+     * Stop counting the writes, the loops which have not written yet are unsynchronized
+     */
+    void close() {
+      synchronized(this) {
+        if(closed) {
+          return;
+        }
+        closed = true;
+        waiting.values().forEach(unsynchronized::addAll);
+      }
+      // outside of the lock, the group is completed from here
+      done.complete(null);
+    }
+
+    boolean isDone() {
+      return done.isDone();
+    }
+
+    void whenDone(Runnable action) {
+      done.whenComplete((ignored, throwable) -> action.run());
+    }
+
+    /**
+     * @return Time between the first and the last write counted
+     */
+    synchronized long getSkew() {
+      return last < first ? 0 : last - first;
+    }
+
+    synchronized Set<Device> getUnsynchronized() {
+      return new HashSet<>(unsynchronized);
+    }
+  }
+}
@@ -0,0 +1,200 @@
+package io.github.przybandrzej.yeelight;
+
+import io.github.przybandrzej.yeelight.utils.Utils;
+
+/**
+ * Properties of a device tracked by the {@link DeviceStateStore}, with the Java type of their values. Declared in the
+ * order of {@link Utils#PROPERTIES}.
+ * <p>
+ * Devices keep the values in two arrays, an int array for the numeric, switch and color mode properties and a string
+ * array for the text ones, each property owning a slot of one of them.
+ */
+public enum DeviceProperty {
+  POWER("power", Boolean.class),
+  BRIGHT("bright", Integer.class),
+  CT("ct", Integer.class),
+  RGB("rgb", Integer.class),
+  HUE("hue", Integer.class),
+  SAT("sat", Integer.class),
+  COLOR_MODE("color_mode", ColorMode.class),
+  FLOWING("flowing", Boolean.class),
+  DELAYOFF("delayoff", Integer.class),
+  FLOW_PARAMS("flow_params", String.class),
+  MUSIC_ON("music_on", Boolean.class),
+  NAME("name", String.class),
+  BG_POWER("bg_power", Boolean.class),
+  BG_FLOWING("bg_flowing", Boolean.class),
+  BG_FLOW_PARAMS("bg_flow_params", String.class),
+  BG_CT("bg_ct", Integer.class),
+  BG_LMODE("bg_lmode", ColorMode.class),
+  BG_BRIGHT("bg_bright", Integer.class),
+  BG_RGB("bg_rgb", Integer.class),
+  BG_HUE("bg_hue", Integer.class),
+  BG_SAT("bg_sat", Integer.class),
+  NL_BR("nl_br", Integer.class),
+  ACTIVE_MODE("active_mode", Integer.class);
+
+  /**
+   * All properties, at most 64 so a set of them fits in a long bit mask indexed by the ordinal
+   */
+  static final DeviceProperty[] VALUES = values();
+  static final int STATE_SLOTS;
+  static final int TEXT_SLOTS;
+
+  static {
+    int state = 0;
+    int text = 0;
+    for(DeviceProperty property : VALUES) {
+      property.slot = property.isText() ? text++ : state++;
+    }
+    STATE_SLOTS = state;
+    TEXT_SLOTS = text;
+  }
+
+  /**
+   * Representation in the protocol
+   */
+  private final String name;
+  private final Class<?> type;
+  private int slot;
+
+  DeviceProperty(String name, Class<?> type) {
+    this.name = name;
+    this.type = type;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public Class<?> getType() {
+    return type;
+  }
+
+  /**
+   * @param name Name of the property in the protocol
+   * @return Property with the name, null if it is not tracked
+   */
+  public static DeviceProperty get(String name) {
+    switch(name) {
+      case "power":
+        return POWER;
+      case "bright":
+        return BRIGHT;
+      case "ct":
+        return CT;
+      case "rgb":
+        return RGB;
+      case "hue":
+        return HUE;
+      case "sat":
+        return SAT;
+      case "color_mode":
+        return COLOR_MODE;
+      case "flowing":
+        return FLOWING;
+      case "delayoff":
+        return DELAYOFF;
+      case "flow_params":
+        return FLOW_PARAMS;
+      case "music_on":
+        return MUSIC_ON;
+      case "name":
+        return NAME;
+      case "bg_power":
+        return BG_POWER;
+      case "bg_flowing":
+        return BG_FLOWING;
+      case "bg_flow_params":
+        return BG_FLOW_PARAMS;
+      case "bg_ct":
+        return BG_CT;
+      case "bg_lmode":
+        return BG_LMODE;
+      case "bg_bright":
+        return BG_BRIGHT;
+      case "bg_rgb":
+        return BG_RGB;
+      case "bg_hue":
+        return BG_HUE;
+      case "bg_sat":
+        return BG_SAT;
+      case "nl_br":
+        return NL_BR;
+      case "active_mode":
+        return ACTIVE_MODE;
+      default:
+        return null;
+    }
+  }
+
+  boolean isText() {
+    return type == String.class;
+  }
+
+  /**
+   * @return Index of the value in the state array of a device, or in the text array for text properties
+   */
+  int getSlot() {
+    return slot;
+  }
+
+  /**
+   * Convert a numeric value received from the device to its int representation
+   *
+   * @throws IllegalArgumentException if the value is not valid for the property
+   */
+  int parse(int value) {
+    if(type == Boolean.class) {
+      return value != 0 ? 1 : 0;
+    } else if(type == ColorMode.class && ColorMode.find(value) == null) {
+      throw new IllegalArgumentException("No such color mode " + value);
+    }
+    return value;
+  }
+
+  /**
+   * Convert a string value received from the device to its int representation
+   *
+   * @throws IllegalArgumentException if the value is not valid for the property
+   */
+  int parse(String value) {
+    if(type == Boolean.class) {
+      return value.equals("on") || value.equals("1") ? 1 : 0;
+    }
+    return parse(Integer.parseInt(value));
+  }
+
+  /**
+   * Convert a string value received from the device for a text property
+   */
+  String parseText(String value) {
+    return this == NAME ? Utils.decodeName(value) : value;
+  }
+
+  /**
+   * @param value Value of the type of the property
+   * @return Int representation of the value
+   */
+  int toState(Object value) {
+    if(value instanceof Boolean) {
+      return (Boolean) value ? 1 : 0;
+    } else if(value instanceof ColorMode) {
+      return ((ColorMode) value).getValue();
+    }
+    return value == null ? 0 : (Integer) value;
+  }
+
+  /**
+   * @param state Int representation of a value
+   * @return Value of the type of the property
+   */
+  Object toValue(int state) {
+    if(type == Boolean.class) {
+      return state != 0;
+    } else if(type == ColorMode.class) {
+      return ColorMode.find(state);
+    }
+    return state;
+  }
+}
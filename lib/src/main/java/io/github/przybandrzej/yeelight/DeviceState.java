@@ -0,0 +1,190 @@
+package io.github.przybandrzej.yeelight;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Immutable snapshot of the state of a device. Every update received from the device produces a new snapshot with a
+ * higher version, so a snapshot can be shared between threads and compared cheaply.
+ * <p>
+ * The values are held unboxed like in {@link Device}; snapshots that only differ in numeric properties share the text
+ * array.
+ */
+public final class DeviceState {
+
+  private final long version;
+  private final int[] state;
+  private final String[] text;
+
+  DeviceState(Device device) {
+    this.version = 0;
+    this.state = new int[DeviceProperty.STATE_SLOTS];
+    this.text = new String[DeviceProperty.TEXT_SLOTS];
+    for(DeviceProperty property : DeviceProperty.VALUES) {
+      if(property.isText()) {
+        text[property.getSlot()] = device.getText(property);
+      } else {
+        state[property.getSlot()] = device.getState(property);
+      }
+    }
+  }
+
+  private DeviceState(long version, int[] state, String[] text) {
+    this.version = version;
+    this.state = state;
+    this.text = text;
+  }
+
+  /**
+   * @return Number of updates applied before this snapshot
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  public Object get(DeviceProperty property) {
+    return property.isText() ? text[property.getSlot()] : property.toValue(state[property.getSlot()]);
+  }
+
+  public boolean isPower() {
+    return state[DeviceProperty.POWER.getSlot()] != 0;
+  }
+
+  public int getBrightness() {
+    return state[DeviceProperty.BRIGHT.getSlot()];
+  }
+
+  public int getColorTemperature() {
+    return state[DeviceProperty.CT.getSlot()];
+  }
+
+  public int getRgb() {
+    return state[DeviceProperty.RGB.getSlot()];
+  }
+
+  public int getHue() {
+    return state[DeviceProperty.HUE.getSlot()];
+  }
+
+  public int getSaturation() {
+    return state[DeviceProperty.SAT.getSlot()];
+  }
+
+  public ColorMode getColorMode() {
+    return ColorMode.find(state[DeviceProperty.COLOR_MODE.getSlot()]);
+  }
+
+  public boolean isFlowing() {
+    return state[DeviceProperty.FLOWING.getSlot()] != 0;
+  }
+
+  public int getDelayOff() {
+    return state[DeviceProperty.DELAYOFF.getSlot()];
+  }
+
+  public boolean isMusicOn() {
+    return state[DeviceProperty.MUSIC_ON.getSlot()] != 0;
+  }
+
+  public String getFlowParams() {
+    return text[DeviceProperty.FLOW_PARAMS.getSlot()];
+  }
+
+  public String getName() {
+    return text[DeviceProperty.NAME.getSlot()];
+  }
+
+  public boolean isBackgroundPower() {
+    return state[DeviceProperty.BG_POWER.getSlot()] != 0;
+  }
+
+  public boolean isBackgroundFlowing() {
+    return state[DeviceProperty.BG_FLOWING.getSlot()] != 0;
+  }
+
+  public String getBackgroundFlowParams() {
+    return text[DeviceProperty.BG_FLOW_PARAMS.getSlot()];
+  }
+
+  public int getBackgroundColorTemperature() {
+    return state[DeviceProperty.BG_CT.getSlot()];
+  }
+
+  public ColorMode getBackgroundColorMode() {
+    return ColorMode.find(state[DeviceProperty.BG_LMODE.getSlot()]);
+  }
+
+  public int getBackgroundBrightness() {
+    return state[DeviceProperty.BG_BRIGHT.getSlot()];
+  }
+
+  public int getBackgroundRgb() {
+    return state[DeviceProperty.BG_RGB.getSlot()];
+  }
+
+  public int getBackgroundHue() {
+    return state[DeviceProperty.BG_HUE.getSlot()];
+  }
+
+  public int getBackgroundSaturation() {
+    return state[DeviceProperty.BG_SAT.getSlot()];
+  }
+
+  public int getNightLightBrightness() {
+    return state[DeviceProperty.NL_BR.getSlot()];
+  }
+
+  public int getActiveMode() {
+    return state[DeviceProperty.ACTIVE_MODE.getSlot()];
+  }
+
+  /**
+   * @param device     Device holding the new values
+   * @param properties Bit mask of the properties to compare, by ordinal
+   * @return Bit mask of the properties among them whose value on the device differs from this snapshot
+   */
+  long diff(Device device, long properties) {
+    long changed = 0;
+    for(long left = properties; left != 0; left &= left - 1) {
+      DeviceProperty property = DeviceProperty.VALUES[Long.numberOfTrailingZeros(left)];
+      boolean same = property.isText()
+          ? Objects.equals(text[property.getSlot()], device.getText(property))
+          : state[property.getSlot()] == device.getState(property);
+      if(!same) {
+        changed |= 1L << property.ordinal();
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * @param device     Device holding the new values
+   * @param properties Bit mask of the properties to take from the device, by ordinal
+   * @return Next snapshot
+   */
+  DeviceState with(Device device, long properties) {
+    int[] nextState = Arrays.copyOf(state, state.length);
+    String[] nextText = text;
+    for(long left = properties; left != 0; left &= left - 1) {
+      DeviceProperty property = DeviceProperty.VALUES[Long.numberOfTrailingZeros(left)];
+      if(property.isText()) {
+        if(nextText == text) {
+          nextText = Arrays.copyOf(text, text.length);
+        }
+        nextText[property.getSlot()] = device.getText(property);
+      } else {
+        nextState[property.getSlot()] = device.getState(property);
+      }
+    }
+    return new DeviceState(version + 1, nextState, nextText);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("DeviceState{version=").append(version);
+    for(DeviceProperty property : DeviceProperty.VALUES) {
+      builder.append(", ").append(property.getName()).append('=').append(get(property));
+    }
+    return builder.append('}').toString();
+  }
+}
@@ -0,0 +1,101 @@
+package io.github.przybandrzej.yeelight;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Holds the latest {@link DeviceState} of a device and notifies the subscribers of the properties that have actually
+ * changed. All properties of one "props" notification are applied at once, as a single new version.
+ * <p>
+ * Listeners are called on the callback executor of the engine, after the new snapshot has been published.
+ */
+public class DeviceStateStore {
+
+  private volatile DeviceState state;
+  private final List<PropertyListener<Object>>[] listeners;
+  private final Executor callbacks;
+  private final List<Consumer<PropertyChange<?>>> observers = new CopyOnWriteArrayList<>();
+
+  DeviceStateStore(Device device, Executor callbacks) {
+    this.state = new DeviceState(device);
+    this.callbacks = callbacks;
+    this.listeners = newListArray(DeviceProperty.VALUES.length);
+    for(int i = 0; i < listeners.length; i++) {
+      listeners[i] = new CopyOnWriteArrayList<>();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> List<T>[] newListArray(int length) {
+    return (List<T>[]) new List<?>[length];
+  }
+
+  /**
+   * @return Latest snapshot of the device
+   */
+  public DeviceState getState() {
+    return state;
+  }
+
+  /**
+   * Subscribe to the changes of a single property
+   *
+   * @param property Property to watch
+   * @param type     Type of the property values, must match {@link DeviceProperty#getType()}
+   * @param listener Receiver of the changes
+   * @param <T>      Type of the property values
+   */
+  @SuppressWarnings("unchecked")
+  public <T> void subscribe(DeviceProperty property, Class<T> type, PropertyListener<? super T> listener) {
+    Objects.requireNonNull(listener, "The property listener cannot be null.");
+    if(!type.isAssignableFrom(property.getType())) {
+      throw new IllegalArgumentException("Property " + property.getName() + " holds " + property.getType().getSimpleName()
+          + " values.");
+    }
+    listeners[property.ordinal()].add((PropertyListener<Object>) listener);
+  }
+
+  public void unsubscribe(DeviceProperty property, PropertyListener<?> listener) {
+    listeners[property.ordinal()].remove(listener);
+  }
+
+  /**
+   * Observe every change on the thread applying the update, before the listeners are called
+   */
+  void observe(Consumer<PropertyChange<?>> observer) {
+    observers.add(observer);
+  }
+
+  /**
+   * Publish a new snapshot if any of the values differs from the current one. Nothing is allocated unless a value has
+   * changed.
+   *
+   * @param device     Device the values of the update were applied to
+   * @param properties Bit mask of the properties in the update, by ordinal
+   */
+  synchronized void update(Device device, long properties) {
+    DeviceState previous = state;
+    long changed = previous.diff(device, properties);
+    if(changed == 0) {
+      return;
+    }
+    DeviceState next = previous.with(device, changed);
+    this.state = next;
+    for(long left = changed; left != 0; left &= left - 1) {
+      DeviceProperty property = DeviceProperty.VALUES[Long.numberOfTrailingZeros(left)];
+      if(listeners[property.ordinal()].isEmpty() && observers.isEmpty()) {
+        continue;
+      }
+      PropertyChange<Object> change = new PropertyChange<>(property, previous.get(property), next.get(property), next);
+      for(Consumer<PropertyChange<?>> observer : observers) {
+        observer.accept(change);
+      }
+      for(PropertyListener<Object> listener : listeners[property.ordinal()]) {
+        callbacks.execute(() -> listener.onChange(change));
+      }
+    }
+  }
+}
@@ -9,27 +9,46 @@ import io.github.przybandrzej.yeelight.utils.Utils;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 
 public class Discover {
 
   private static final int TIMEOUT = 5000;
-  private static final int SEARCH_RESPONSE_LINES = 18;
-  private static final String ADVERTISEMENT_ADDRESS = "239.255.255.250";
-  private static final int ADVERTISEMENT_PORT = 1982;
+  static final String ADVERTISEMENT_ADDRESS = "239.255.255.250";
+  static final int ADVERTISEMENT_PORT = 1982;
 
-  private static final String SEARCH_DEVICES_MESSAGE = "M-SEARCH * HTTP/1.1\r\n" +
+  static final String SEARCH_DEVICES_MESSAGE = "M-SEARCH * HTTP/1.1\r\n" +
       "HOST: 239.255.255.250:1982\r\n" +
       "MAN: \"ssdp:discover\"\r\n" +
       "ST: wifi_bulb";
   private static final String UDP_STATUS_OK_LINE = "HTTP/1.1 200 OK";
+  private static final String ADVERTISEMENT_LINE = "NOTIFY * HTTP/1.1";
 
   private DatagramSocket udpSocket;
   private final String localAddr;
   private final int localPort;
+  private final String searchAddr;
+  private final int searchPort;
 
   public Discover(String localAddr, int localPort) throws SocketException {
+    this(localAddr, localPort, ADVERTISEMENT_ADDRESS, ADVERTISEMENT_PORT);
+  }
+
+  /**
+   * Search by sending to the given address instead of the SSDP multicast group, e.g. to a single device or to a
+   * device simulator on a network without multicast
+   *
+   * @param localAddr  IP of this machine
+   * @param localPort  Port the responses are received on
+   * @param searchAddr Address the search is sent to
+   * @param searchPort Port the search is sent to
+   * @throws SocketException if the socket cannot be bound
+   */
+  public Discover(String localAddr, int localPort, String searchAddr, int searchPort) throws SocketException {
     this.localAddr = localAddr;
     this.localPort = localPort;
+    this.searchAddr = searchAddr;
+    this.searchPort = searchPort;
     this.udpSocket = new DatagramSocket(new InetSocketAddress(this.localAddr, this.localPort));
   }
 
@@ -38,7 +57,7 @@ public class Discover {
       throw new SocketClosedException();
     }
     byte[] buf = SEARCH_DEVICES_MESSAGE.getBytes();
-    DatagramPacket packet = new DatagramPacket(buf, buf.length, InetAddress.getByName(ADVERTISEMENT_ADDRESS), ADVERTISEMENT_PORT);
+    DatagramPacket packet = new DatagramPacket(buf, buf.length, InetAddress.getByName(searchAddr), searchPort);
     udpSocket.send(packet);
   }
 
@@ -58,9 +77,7 @@ public class Discover {
     catch(SocketTimeoutException e) {
       throw new SearchTimeoutException();
     }
-    String data = new String(
-        packet.getData(), 0, packet.getLength());
-    return mapSearchResponse(data);
+    return mapSearchResponse(packet.getData(), packet.getOffset(), packet.getLength());
   }
 
   public void initNewSearch() throws SocketException {
@@ -68,84 +85,209 @@ public class Discover {
     udpSocket = new DatagramSocket(new InetSocketAddress(this.localAddr, this.localPort));
   }
 
-  private Device mapSearchResponse(String response) throws UnknownPacketException, BadResponseException {
-    String[] lines = response.split("\r\n");
-    if(lines.length != SEARCH_RESPONSE_LINES) {
+  /**
+   * Map a search response or an advertisement of a device
+   *
+   * @param response Content of the packet
+   * @return Advertised device
+   * @throws UnknownPacketException if the packet is neither a search response nor an advertisement
+   * @throws BadResponseException   if the packet does not describe a device
+   */
+  static Device mapSearchResponse(String response) throws UnknownPacketException, BadResponseException {
+    byte[] data = response.getBytes(StandardCharsets.ISO_8859_1);
+    return mapSearchResponse(data, 0, data.length);
+  }
+
+  /**
+   * Map a search response or an advertisement of a device straight from the packet bytes. Headers are matched by
+   * name, so their order does not matter and unknown headers are skipped without being materialized.
+   *
+   * @param data   Packet buffer
+   * @param offset Start of the packet content
+   * @param length Length of the packet content
+   * @return Advertised device
+   * @throws UnknownPacketException if the packet is neither a search response nor an advertisement
+   * @throws BadResponseException   if the packet does not describe a device
+   */
+  static Device mapSearchResponse(byte[] data, int offset, int length) throws UnknownPacketException, BadResponseException {
+    int end = offset + length;
+    int lineEnd = lineEnd(data, offset, end);
+    if(!matches(data, offset, lineEnd, UDP_STATUS_OK_LINE) && !matches(data, offset, lineEnd, ADVERTISEMENT_LINE)) {
+      if(matches(data, offset, Math.min(lineEnd, offset + 5), "HTTP/")) {
+        throw new BadResponseException();
+      }
       throw new UnknownPacketException();
     }
-    if(!lines[0].equals(UDP_STATUS_OK_LINE)) {
+    Device device = new Device();
+    device.setName("");
+    device.setSupport(new String[0]);
+    try {
+      int pos = next(data, lineEnd, end);
+      while(pos < end) {
+        lineEnd = lineEnd(data, pos, end);
+        int separator = indexOf(data, pos, lineEnd, (byte) ':');
+        if(separator > pos) {
+          int nameEnd = trimEnd(data, pos, separator);
+          int valueStart = trimStart(data, separator + 1, lineEnd);
+          header(device, data, pos, nameEnd, valueStart, trimEnd(data, valueStart, lineEnd));
+        }
+        pos = next(data, lineEnd, end);
+      }
+    } catch(RuntimeException e) {
+      throw new BadResponseException();
+    }
+    if(device.getId() == null || device.getLocation() == null) {
       throw new BadResponseException();
     }
-    Device device = new Device();
-    device.setId(getId(lines));
-    device.setLocation(getLocation(lines));
-    device.setBrightness(getBright(lines));
-    device.setColorMode(getColorMode(lines));
-    device.setColorTemperature(getCT(lines));
-    device.setHue(getHue(lines));
-    device.setModel(getModel(lines));
-    device.setName(Utils.decodeName(getName(lines)));
-    device.setPower(getPowerOn(lines));
-    device.setRgb(getRgb(lines));
-    device.setFirmwareVersion(getFwVer(lines));
-    device.setSaturation(getSat(lines));
-    device.setSupport(getSupport(lines));
     return device;
   }
 
-  private String getId(String[] lines) {
-    return lines[6].substring(4);
-  }
-
-  private String getLocation(String[] lines) {
-    return lines[4].substring(10);
-  }
-
-  private Model getModel(String[] lines) {
-    return Model.get(lines[7].substring(7));
+  private static void header(Device device, byte[] data, int name, int nameEnd, int value, int valueEnd) {
+    if(equalsIgnoreCase(data, name, nameEnd, "id")) {
+      device.setId(string(data, value, valueEnd));
+    } else if(equalsIgnoreCase(data, name, nameEnd, "location")) {
+      device.setLocation(string(data, value, valueEnd));
+    } else if(equalsIgnoreCase(data, name, nameEnd, "model")) {
+      String model = string(data, value, valueEnd);
+      device.setModelName(model);
+      device.setModel(Model.find(model));
+    } else if(equalsIgnoreCase(data, name, nameEnd, "fw_ver")) {
+      device.setFirmwareVersion(parseInt(data, value, valueEnd));
+    } else if(equalsIgnoreCase(data, name, nameEnd, "support")) {
+      device.setSupport(split(data, value, valueEnd));
+    } else if(equalsIgnoreCase(data, name, nameEnd, "power")) {
+      device.setPower(matches(data, value, valueEnd, "on"));
+    } else if(equalsIgnoreCase(data, name, nameEnd, "bright")) {
+      device.setBrightness(parseInt(data, value, valueEnd));
+    } else if(equalsIgnoreCase(data, name, nameEnd, "color_mode")) {
+      device.setColorMode(ColorMode.find(parseInt(data, value, valueEnd)));
+    } else if(equalsIgnoreCase(data, name, nameEnd, "ct")) {
+      device.setColorTemperature(parseInt(data, value, valueEnd));
+    } else if(equalsIgnoreCase(data, name, nameEnd, "rgb")) {
+      device.setRgb(parseInt(data, value, valueEnd));
+    } else if(equalsIgnoreCase(data, name, nameEnd, "hue")) {
+      device.setHue(parseInt(data, value, valueEnd));
+    } else if(equalsIgnoreCase(data, name, nameEnd, "sat")) {
+      device.setSaturation(parseInt(data, value, valueEnd));
+    } else if(equalsIgnoreCase(data, name, nameEnd, "name")) {
+      device.setName(value == valueEnd ? "" : Utils.decodeName(string(data, value, valueEnd)));
+    }
   }
 
-  private int getFwVer(String[] lines) {
-    return Integer.parseInt(lines[8].substring(8));
+  private static int lineEnd(byte[] data, int from, int end) {
+    int i = indexOf(data, from, end, (byte) '\n');
+    if(i < 0) {
+      i = end;
+    }
+    return i > from && data[i - 1] == '\r' ? i - 1 : i;
   }
 
-  private String[] getSupport(String[] lines) {
-    return lines[9].substring(9).split(" ");
+  private static int next(byte[] data, int lineEnd, int end) {
+    if(lineEnd < end && data[lineEnd] == '\r') {
+      lineEnd++;
+    }
+    return lineEnd < end ? lineEnd + 1 : end;
   }
 
-  private boolean getPowerOn(String[] lines) {
-    return lines[10].substring(7).equals("on");
+  private static int indexOf(byte[] data, int from, int end, byte b) {
+    for(int i = from; i < end; i++) {
+      if(data[i] == b) {
+        return i;
+      }
+    }
+    return -1;
   }
 
-  private int getBright(String[] lines) {
-    return Integer.parseInt(lines[11].substring(8));
+  private static int trimStart(byte[] data, int from, int end) {
+    while(from < end && (data[from] == ' ' || data[from] == '\t')) {
+      from++;
+    }
+    return from;
   }
 
-  private ColorMode getColorMode(String[] lines) {
-    return ColorMode.valueOf(Integer.parseInt(lines[12].substring(12)));
+  private static int trimEnd(byte[] data, int from, int end) {
+    while(end > from && (data[end - 1] == ' ' || data[end - 1] == '\t')) {
+      end--;
+    }
+    return end;
   }
 
-  private int getCT(String[] lines) {
-    return Integer.parseInt(lines[13].substring(4));
+  private static boolean matches(byte[] data, int from, int end, String expected) {
+    if(end - from != expected.length()) {
+      return false;
+    }
+    for(int i = 0; i < expected.length(); i++) {
+      if(data[from + i] != expected.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
   }
 
-  private int getRgb(String[] lines) {
-    return Integer.parseInt(lines[14].substring(5));
+  private static boolean equalsIgnoreCase(byte[] data, int from, int end, String lowerCase) {
+    if(end - from != lowerCase.length()) {
+      return false;
+    }
+    for(int i = 0; i < lowerCase.length(); i++) {
+      int b = data[from + i];
+      if(b >= 'A' && b <= 'Z') {
+        b += 'a' - 'A';
+      }
+      if(b != lowerCase.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
   }
 
-  private int getHue(String[] lines) {
-    return Integer.parseInt(lines[15].substring(5));
+  private static int parseInt(byte[] data, int from, int end) {
+    if(from == end) {
+      return 0;
+    }
+    boolean negative = data[from] == '-';
+    int i = negative ? from + 1 : from;
+    if(i == end) {
+      throw new NumberFormatException();
+    }
+    // saturated like the numbers of the responses, an oversized value does not wrap around
+    long limit = negative ? Integer.MAX_VALUE + 1L : Integer.MAX_VALUE;
+    long value = 0;
+    for(; i < end; i++) {
+      int digit = data[i] - '0';
+      if(digit < 0 || digit > 9) {
+        throw new NumberFormatException();
+      }
+      value = Math.min(value * 10 + digit, limit);
+    }
+    return (int) (negative ? -value : value);
   }
 
-  private int getSat(String[] lines) {
-    return Integer.parseInt(lines[16].substring(5));
+  private static String string(byte[] data, int from, int end) {
+    return new String(data, from, end - from, StandardCharsets.ISO_8859_1);
   }
 
-  private String getName(String[] lines) {
-    String line = lines[17];
-    if(line.length() <= 6) {
-      return "";
+  private static String[] split(byte[] data, int from, int end) {
+    int count = 0;
+    for(int i = from; i < end; i++) {
+      if(data[i] != ' ' && (i == from || data[i - 1] == ' ')) {
+        count++;
+      }
+    }
+    String[] words = new String[count];
+    int word = 0;
+    int i = from;
+    while(i < end) {
+      if(data[i] == ' ') {
+        i++;
+        continue;
+      }
+      int wordEnd = i;
+      while(wordEnd < end && data[wordEnd] != ' ') {
+        wordEnd++;
+      }
+      words[word++] = string(data, i, wordEnd);
+      i = wordEnd;
     }
-    return lines[17].substring(6);
+    return words;
   }
 }
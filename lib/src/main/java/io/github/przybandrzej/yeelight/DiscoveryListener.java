@@ -0,0 +1,31 @@
+package io.github.przybandrzej.yeelight;
+
+/**
+ * Receiver of the {@link DiscoveryService} events, called on the discovery thread
+ */
+public interface DiscoveryListener {
+
+  /**
+   * A device has been seen for the first time
+   *
+   * @param device Discovered device
+   */
+  default void onDeviceAdded(Device device) {
+  }
+
+  /**
+   * A known device has advertised a new location or state
+   *
+   * @param device New instance holding the advertised values, which replaces the previous one in the registry
+   */
+  default void onDeviceChanged(Device device) {
+  }
+
+  /**
+   * A known device has not been seen for longer than the lost timeout and was removed from the registry
+   *
+   * @param device Removed device
+   */
+  default void onDeviceLost(Device device) {
+  }
+}
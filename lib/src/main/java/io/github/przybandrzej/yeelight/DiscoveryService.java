@@ -0,0 +1,252 @@
+package io.github.przybandrzej.yeelight;
+
+import io.github.przybandrzej.yeelight.exception.BadResponseException;
+import io.github.przybandrzej.yeelight.exception.UnknownPacketException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-running discovery. Joins the multicast group of the Yeelight devices, so besides the answers to its periodic
+ * searches it also hears the advertisements the devices send on their own (e.g. after a reboot). Devices are kept
+ * in a registry deduplicated by {@link Device#getId()}; a known device advertising a new location or state is replaced
+ * by a new {@link Device} instance, so the instances handed out are never modified by the discovery thread, and
+ * devices are removed when they have not been seen for a while.
+ */
+public class DiscoveryService implements Closeable {
+
+  private static final long DEFAULT_SEARCH_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+  private static final int SEARCHES_BEFORE_LOST = 3;
+  private static final int RECEIVE_TIMEOUT = 1000;
+  private static final int PACKET_SIZE = 2048;
+
+  private static final class Entry {
+    private final Device device;
+    private long lastSeen;
+
+    private Entry(Device device, long lastSeen) {
+      this.device = device;
+      this.lastSeen = lastSeen;
+    }
+  }
+
+  private final MulticastSocket socket;
+  private final InetSocketAddress group;
+  private final Map<String, Entry> registry = new ConcurrentHashMap<>();
+  private final List<DiscoveryListener> listeners = new CopyOnWriteArrayList<>();
+  private volatile long searchInterval = DEFAULT_SEARCH_INTERVAL;
+  private volatile long lostAfter = DEFAULT_SEARCH_INTERVAL * SEARCHES_BEFORE_LOST;
+  private volatile boolean running = false;
+  private Thread thread;
+
+  /**
+   * @param localAddr IP of this machine in the local network, the multicast group is joined on its interface
+   * @throws IOException if the multicast socket cannot be opened
+   */
+  public DiscoveryService(String localAddr) throws IOException {
+    this.group = new InetSocketAddress(InetAddress.getByName(Discover.ADVERTISEMENT_ADDRESS), Discover.ADVERTISEMENT_PORT);
+    this.socket = new MulticastSocket(null);
+    try {
+      socket.setReuseAddress(true);
+      socket.bind(new InetSocketAddress(Discover.ADVERTISEMENT_PORT));
+      NetworkInterface networkInterface = NetworkInterface.getByInetAddress(InetAddress.getByName(localAddr));
+      if(networkInterface != null) {
+        socket.setNetworkInterface(networkInterface);
+      }
+      socket.joinGroup(group, networkInterface);
+      socket.setSoTimeout(RECEIVE_TIMEOUT);
+    } catch(IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Setter for the interval between two searches
+   *
+   * @param searchInterval Interval in milliseconds (&gt; 0)
+   */
+  public void searchInterval(long searchInterval) {
+    if(searchInterval <= 0) {
+      throw new IllegalArgumentException("The search interval must be positive.");
+    }
+    this.searchInterval = searchInterval;
+  }
+
+  /**
+   * Setter for the time after which a device that has not been seen is reported as lost
+   *
+   * @param lostAfter Time in milliseconds (&gt; 0)
+   */
+  public void lostAfter(long lostAfter) {
+    if(lostAfter <= 0) {
+      throw new IllegalArgumentException("The lost timeout must be positive.");
+    }
+    this.lostAfter = lostAfter;
+  }
+
+  public void addListener(DiscoveryListener listener) {
+    listeners.add(Objects.requireNonNull(listener, "The discovery listener cannot be null."));
+  }
+
+  public void removeListener(DiscoveryListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * @return Devices currently in the registry
+   */
+  public Collection<Device> getDevices() {
+    List<Device> devices = new ArrayList<>(registry.size());
+    registry.values().forEach(entry -> devices.add(entry.device));
+    return devices;
+  }
+
+  /**
+   * @param id ID of the device
+   * @return Device with the ID, null if it is not in the registry
+   */
+  public Device getDevice(String id) {
+    Entry entry = registry.get(id);
+    return entry == null ? null : entry.device;
+  }
+
+  /**
+   * Start the discovery thread, which searches immediately and then every search interval
+   */
+  public synchronized void start() {
+    if(running) {
+      return;
+    }
+    running = true;
+    thread = new Thread(this::run, "yeelight-discovery");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Search right away instead of waiting for the next search interval
+   *
+   * @throws IOException if the search cannot be sent
+   */
+  public void search() throws IOException {
+    byte[] buf = Discover.SEARCH_DEVICES_MESSAGE.getBytes();
+    socket.send(new DatagramPacket(buf, buf.length, group));
+  }
+
+  @Override
+  public synchronized void close() {
+    running = false;
+    socket.close();
+  }
+
+  private void run() {
+    DatagramPacket packet = new DatagramPacket(new byte[PACKET_SIZE], PACKET_SIZE);
+    long lastSearch = 0;
+    boolean searched = false;
+    while(running) {
+      long now = System.nanoTime();
+      if(!searched || now - lastSearch >= TimeUnit.MILLISECONDS.toNanos(searchInterval)) {
+        try {
+          search();
+        } catch(IOException e) {
+          if(socket.isClosed()) {
+            return;
+          }
+        }
+        lastSearch = now;
+        searched = true;
+      }
+      try {
+        packet.setLength(PACKET_SIZE);
+        socket.receive(packet);
+        received(packet);
+      } catch(SocketTimeoutException ignored) {
+        // time to check for lost devices
+      } catch(IOException e) {
+        if(socket.isClosed()) {
+          return;
+        }
+      }
+      expire(System.nanoTime());
+    }
+  }
+
+  private void received(DatagramPacket packet) {
+    Device seen;
+    try {
+      seen = Discover.mapSearchResponse(packet.getData(), packet.getOffset(), packet.getLength());
+    } catch(UnknownPacketException | BadResponseException e) {
+      // our own search or another SSDP service
+      return;
+    }
+    long now = System.nanoTime();
+    Entry entry = registry.get(seen.getId());
+    if(entry == null) {
+      registry.put(seen.getId(), new Entry(seen, now));
+      listeners.forEach(listener -> notify(() -> listener.onDeviceAdded(seen)));
+      return;
+    }
+    if(!changed(entry.device, seen)) {
+      entry.lastSeen = now;
+      return;
+    }
+    registry.put(seen.getId(), new Entry(seen, now));
+    listeners.forEach(listener -> notify(() -> listener.onDeviceChanged(seen)));
+  }
+
+  private void expire(long now) {
+    long lostAfterNanos = TimeUnit.MILLISECONDS.toNanos(lostAfter);
+    Iterator<Entry> entries = registry.values().iterator();
+    while(entries.hasNext()) {
+      Entry entry = entries.next();
+      if(now - entry.lastSeen > lostAfterNanos) {
+        entries.remove();
+        listeners.forEach(listener -> notify(() -> listener.onDeviceLost(entry.device)));
+      }
+    }
+  }
+
+  /**
+   * @return true if any of the advertised values differs from the registered device
+   */
+  private static boolean changed(Device device, Device seen) {
+    return !Objects.equals(device.getLocation(), seen.getLocation())
+        || device.getModel() != seen.getModel()
+        || !Objects.equals(device.getModelName(), seen.getModelName())
+        || !Arrays.equals(device.getSupport(), seen.getSupport())
+        || !Objects.equals(device.getName(), seen.getName())
+        || device.getFirmwareVersion() != seen.getFirmwareVersion()
+        || device.isPower() != seen.isPower()
+        || device.getBrightness() != seen.getBrightness()
+        || device.getColorMode() != seen.getColorMode()
+        || device.getColorTemperature() != seen.getColorTemperature()
+        || device.getRgb() != seen.getRgb()
+        || device.getHue() != seen.getHue()
+        || device.getSaturation() != seen.getSaturation();
+  }
+
+  private void notify(Runnable event) {
+    try {
+      event.run();
+    } catch(RuntimeException e) {
+      thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+  }
+}
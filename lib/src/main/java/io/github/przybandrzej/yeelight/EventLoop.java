@@ -0,0 +1,148 @@
+package io.github.przybandrzej.yeelight;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single selector thread driving the reads and writes of all connections registered with it.
+ */
+final class EventLoop implements Runnable {
+
+  /**
+   * Handler of a listening channel, called on the loop thread when a connection can be accepted
+   */
+  interface Acceptor {
+    void handleAccept();
+  }
+
+  private final Selector selector;
+  private final Thread thread;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger registrations = new AtomicInteger();
+  private volatile boolean running = true;
+
+  EventLoop(String name) throws IOException {
+    this.selector = Selector.open();
+    this.thread = new Thread(this, name);
+    this.thread.setDaemon(true);
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  /**
+   * Run a task on the loop thread. Selector state must only be touched from there.
+   *
+   * @param task Task to run
+   */
+  void execute(Runnable task) {
+    tasks.add(task);
+    if(!inEventLoop()) {
+      selector.wakeup();
+    }
+  }
+
+  boolean inEventLoop() {
+    return Thread.currentThread() == thread;
+  }
+
+  int getRegistrations() {
+    return registrations.get();
+  }
+
+  /**
+   * Register a channel with this loop's selector. Must be called on the loop thread.
+   *
+   * @param channel    Non-blocking channel
+   * @param ops        Initial interest set
+   * @param handler    {@link Connection} or {@link Acceptor} notified about readiness
+   * @return Created selection key
+   * @throws IOException if the channel cannot be registered
+   */
+  SelectionKey register(SelectableChannel channel, int ops, Object handler) throws IOException {
+    SelectionKey key = channel.register(selector, ops, handler);
+    registrations.incrementAndGet();
+    return key;
+  }
+
+  void deregister(SelectionKey key) {
+    if(key == null) {
+      return;
+    }
+    key.cancel();
+    registrations.decrementAndGet();
+  }
+
+  void shutdown() {
+    running = false;
+    selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    while(running) {
+      try {
+        selector.select();
+      } catch(IOException e) {
+        break;
+      }
+      runTasks();
+      Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+      while(keys.hasNext()) {
+        SelectionKey key = keys.next();
+        keys.remove();
+        if(key.attachment() instanceof Acceptor) {
+          if(key.isValid() && key.isAcceptable()) {
+            ((Acceptor) key.attachment()).handleAccept();
+          }
+          continue;
+        }
+        Connection connection = (Connection) key.attachment();
+        if(key.isValid() && key.isReadable()) {
+          connection.handleRead();
+        }
+        if(key.isValid() && key.isWritable()) {
+          connection.handleWrite();
+        }
+      }
+    }
+    runTasks();
+    for(SelectionKey key : selector.keys()) {
+      if(key.attachment() instanceof Connection) {
+        try {
+          ((Connection) key.attachment()).close(new IOException("Connection engine closed"));
+        } catch(RuntimeException e) {
+          // the remaining connections and the selector are still closed
+          thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+      } else {
+        try {
+          key.channel().close();
+        } catch(IOException ignored) {
+        }
+      }
+    }
+    try {
+      selector.close();
+    } catch(IOException ignored) {
+    }
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while((task = tasks.poll()) != null) {
+      try {
+        task.run();
+      } catch(RuntimeException e) {
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+      }
+    }
+  }
+}
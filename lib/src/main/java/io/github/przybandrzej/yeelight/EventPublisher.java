@@ -0,0 +1,344 @@
+package io.github.przybandrzej.yeelight;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Reactive Streams publisher of the events of a device. Each subscriber has its own bounded buffer, filled on the
+ * thread which has received the event and drained on the delivery executor as the subscriber requests, so a slow
+ * subscriber never holds up the connection. With {@link OverflowPolicy#BLOCK} an event which does not fit right away
+ * is handed, in order, to a task of the publisher on the delivery executor, which is the only place allowed to wait
+ * for room. The hand-off is bounded by the buffer size too: once it is full, the subscribers holding it up fail.
+ *
+ * @param <T> Type of the events
+ */
+final class EventPublisher<T> implements Publisher<T> {
+
+  private final int bufferSize;
+  private final OverflowPolicy policy;
+  private final Function<? super T, ?> conflationKey;
+  private final Executor producer;
+  private final Executor delivery;
+  /**
+   * Events handed to the producer and not buffered yet, with {@link OverflowPolicy#BLOCK}, guarded by the producer
+   */
+  private int handedOff = 0;
+  private final List<BufferedSubscription<T>> subscriptions = new CopyOnWriteArrayList<>();
+  private volatile boolean terminated = false;
+  private volatile Throwable failure = null;
+
+  /**
+   * @param conflationKey Kind of an event, for {@link OverflowPolicy#CONFLATE}
+   * @param delivery      Executor the subscribers are called on, and the events buffered on with
+   *                      {@link OverflowPolicy#BLOCK}; it must not be bounded, a waiting producer holds one of its
+   *                      threads
+   */
+  EventPublisher(int bufferSize, OverflowPolicy policy, Function<? super T, ?> conflationKey, Executor delivery) {
+    if(bufferSize < 1) {
+      throw new IllegalArgumentException("The buffer size must be positive.");
+    }
+    this.bufferSize = bufferSize;
+    this.policy = Objects.requireNonNull(policy, "The overflow policy cannot be null.");
+    this.conflationKey = conflationKey;
+    this.producer = new SerialExecutor(delivery);
+    this.delivery = delivery;
+  }
+
+  @Override
+  public void subscribe(Subscriber<? super T> subscriber) {
+    Objects.requireNonNull(subscriber, "The subscriber cannot be null.");
+    BufferedSubscription<T> subscription = new BufferedSubscription<>(this, subscriber);
+    subscriptions.add(subscription);
+    subscriber.onSubscribe(subscription);
+    if(terminated) {
+      subscription.terminate(failure);
+    }
+  }
+
+  void publish(T event) {
+    if(subscriptions.isEmpty()) {
+      return;
+    }
+    if(policy != OverflowPolicy.BLOCK) {
+      subscriptions.forEach(subscription -> subscription.offer(event));
+      return;
+    }
+    synchronized(producer) {
+      if(handedOff == 0 && haveRoom()) {
+        // nothing is waiting and only the delivery takes events out, so none of these offers waits
+        subscriptions.forEach(subscription -> subscription.offer(event));
+        return;
+      }
+      if(handedOff >= bufferSize && !overflow()) {
+        return;
+      }
+      handedOff++;
+      producer.execute(() -> {
+        try {
+          subscriptions.forEach(subscription -> subscription.offer(event));
+        } finally {
+          synchronized(producer) {
+            handedOff--;
+          }
+        }
+      });
+    }
+  }
+
+  private boolean haveRoom() {
+    for(BufferedSubscription<T> subscription : subscriptions) {
+      if(!subscription.hasRoom()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The hand-off of {@link OverflowPolicy#BLOCK} is full. The subscriptions with a full buffer are the ones keeping the
+   * producer waiting, they fail; if there are none, the subscribers as a whole do not keep up and all of them fail.
+   *
+   * @return true if the event can still be handed off to the remaining subscriptions; it then goes over the bound,
+   * but only once per failed subscription
+   */
+  private boolean overflow() {
+    IllegalStateException cause = new IllegalStateException("The subscriber does not keep up with the events.");
+    boolean stalled = false;
+    for(BufferedSubscription<T> subscription : subscriptions) {
+      stalled |= subscription.failIfFull(cause);
+    }
+    if(!stalled) {
+      subscriptions.forEach(subscription -> subscription.terminate(cause));
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Signal the end of the events after the buffered ones have been delivered
+   *
+   * @param cause Error to signal, null to complete normally
+   */
+  void terminate(Throwable cause) {
+    failure = cause;
+    terminated = true;
+    if(policy == OverflowPolicy.BLOCK) {
+      // after the events already handed off, which no longer wait for room
+      subscriptions.forEach(BufferedSubscription::wake);
+      producer.execute(() -> subscriptions.forEach(subscription -> subscription.terminate(cause)));
+    } else {
+      subscriptions.forEach(subscription -> subscription.terminate(cause));
+    }
+  }
+
+  private static final class BufferedSubscription<T> implements Subscription {
+
+    private final EventPublisher<T> publisher;
+    private final Subscriber<? super T> subscriber;
+    private final ArrayDeque<T> queue = new ArrayDeque<>();
+    private final Map<Object, T> conflated = new LinkedHashMap<>();
+    private long requested = 0;
+    private boolean cancelled = false;
+    private boolean draining = false;
+    private boolean terminated = false;
+    private Throwable failure = null;
+
+    private BufferedSubscription(EventPublisher<T> publisher, Subscriber<? super T> subscriber) {
+      this.publisher = publisher;
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      synchronized(this) {
+        if(cancelled) {
+          return;
+        }
+        if(n <= 0) {
+          terminated = true;
+          failure = new IllegalArgumentException("The number of requested events must be positive.");
+          clear();
+        } else {
+          requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+        }
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      synchronized(this) {
+        cancelled = true;
+        clear();
+      }
+      publisher.subscriptions.remove(this);
+    }
+
+    private void offer(T event) {
+      synchronized(this) {
+        if(cancelled || terminated) {
+          return;
+        }
+        switch(publisher.policy) {
+          case CONFLATE:
+            Object key = publisher.conflationKey.apply(event);
+            if(conflated.remove(key) == null && conflated.size() >= publisher.bufferSize) {
+              Iterator<T> oldest = conflated.values().iterator();
+              oldest.next();
+              oldest.remove();
+            }
+            conflated.put(key, event);
+            break;
+          case BLOCK:
+            while(queue.size() >= publisher.bufferSize) {
+              if(cancelled || terminated || publisher.terminated) {
+                return;
+              }
+              try {
+                wait();
+              } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+              }
+            }
+            if(cancelled || terminated) {
+              return;
+            }
+            queue.add(event);
+            break;
+          default:
+            if(queue.size() >= publisher.bufferSize) {
+              queue.poll();
+            }
+            queue.add(event);
+        }
+      }
+      drain();
+    }
+
+    private synchronized boolean hasRoom() {
+      return queue.size() < publisher.bufferSize;
+    }
+
+    /**
+     * @return true if the buffer was full and the subscription has failed
+     */
+    private boolean failIfFull(Throwable cause) {
+      synchronized(this) {
+        if(cancelled || terminated || queue.size() < publisher.bufferSize) {
+          return false;
+        }
+      }
+      terminate(cause);
+      return true;
+    }
+
+    /**
+     * Let a producer waiting for room see that the publisher has terminated
+     */
+    private synchronized void wake() {
+      notifyAll();
+    }
+
+    /**
+     * An error is signalled right away, a completion once the buffered events have been delivered
+     */
+    private void terminate(Throwable cause) {
+      synchronized(this) {
+        if(terminated) {
+          return;
+        }
+        terminated = true;
+        failure = cause;
+        if(cause != null) {
+          clear();
+        }
+      }
+      drain();
+    }
+
+    private void drain() {
+      synchronized(this) {
+        if(draining) {
+          return;
+        }
+        draining = true;
+      }
+      publisher.delivery.execute(this::deliver);
+    }
+
+    /**
+     * Call the subscriber for as long as it has requested events and there are some, then the terminal signal
+     */
+    private void deliver() {
+      while(true) {
+        T event;
+        boolean done;
+        Throwable cause;
+        synchronized(this) {
+          event = requested > 0 ? poll() : null;
+          done = terminated && isEmpty() && !cancelled;
+          cause = failure;
+          if(event == null && !done) {
+            draining = false;
+            return;
+          }
+          if(event != null) {
+            requested--;
+            notifyAll();
+          } else {
+            // the terminal signal is sent once
+            cancelled = true;
+          }
+        }
+        try {
+          if(event != null) {
+            subscriber.onNext(event);
+          } else if(cause != null) {
+            subscriber.onError(cause);
+          } else {
+            subscriber.onComplete();
+          }
+        } catch(RuntimeException e) {
+          cancel();
+          Thread thread = Thread.currentThread();
+          thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+        if(event == null) {
+          publisher.subscriptions.remove(this);
+        }
+      }
+    }
+
+    private T poll() {
+      if(!conflated.isEmpty()) {
+        Iterator<T> oldest = conflated.values().iterator();
+        T event = oldest.next();
+        oldest.remove();
+        return event;
+      }
+      return queue.poll();
+    }
+
+    private boolean isEmpty() {
+      return queue.isEmpty() && conflated.isEmpty();
+    }
+
+    private void clear() {
+      queue.clear();
+      conflated.clear();
+      notifyAll();
+    }
+  }
+}
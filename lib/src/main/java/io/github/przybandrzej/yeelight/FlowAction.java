@@ -0,0 +1,32 @@
+package io.github.przybandrzej.yeelight;
+
+/**
+ * What a device does once a {@link ColorFlow} has ended
+ */
+public enum FlowAction {
+  /**
+   * Go back to the state before the flow was started
+   */
+  RECOVER(0),
+  /**
+   * Stay in the last state of the flow
+   */
+  STAY(1),
+  /**
+   * Turn the device off
+   */
+  TURN_OFF(2);
+
+  /**
+   * Representation in request parameters
+   */
+  private final int value;
+
+  FlowAction(int value) {
+    this.value = value;
+  }
+
+  public int getValue() {
+    return value;
+  }
+}
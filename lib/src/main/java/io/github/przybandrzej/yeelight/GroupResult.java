@@ -0,0 +1,72 @@
+package io.github.przybandrzej.yeelight;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of a command sent to a {@link DeviceGroup}: the result of every device which answered in time and the
+ * failure of every other one
+ */
+public final class GroupResult {
+
+  private final Map<Device, CommandResult> results;
+  private final Map<Device, Throwable> failures;
+  private final long dispatchSkew;
+  private final Set<Device> unsynchronized;
+
+  GroupResult(Map<Device, CommandResult> results, Map<Device, Throwable> failures, long dispatchSkew,
+              Set<Device> unsynchronized) {
+    this.results = Collections.unmodifiableMap(results);
+    this.failures = Collections.unmodifiableMap(failures);
+    this.dispatchSkew = dispatchSkew;
+    this.unsynchronized = Collections.unmodifiableSet(unsynchronized);
+  }
+
+  /**
+   * @return Result of each device which answered, including the devices which answered with an error
+   */
+  public Map<Device, CommandResult> getResults() {
+    return results;
+  }
+
+  /**
+   * @return Cause of the failure of each device which did not answer, a {@link java.util.concurrent.TimeoutException}
+   * for the devices which did not answer before the deadline
+   */
+  public Map<Device, Throwable> getFailures() {
+    return failures;
+  }
+
+  /**
+   * @return true if every device answered with "ok"
+   */
+  public boolean isSuccess() {
+    return failures.isEmpty() && results.values().stream().allMatch(CommandResult::getOk);
+  }
+
+  /**
+   * @param unit Unit of the result
+   * @return Time between the first and the last write of a synchronized dispatch, -1 if the command was not sent with
+   * {@link DeviceGroup#sendSynchronized(Command)}
+   */
+  public long getDispatchSkew(TimeUnit unit) {
+    return dispatchSkew < 0 ? -1 : unit.convert(dispatchSkew, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return Devices of a synchronized dispatch whose event loop missed the barrier, e.g. because it was busy. Their
+   * command was still sent, but later than the others and outside of {@link #getDispatchSkew(TimeUnit)}.
+   */
+  public Set<Device> getUnsynchronized() {
+    return unsynchronized;
+  }
+
+  @Override
+  public String toString() {
+    return "GroupResult{results=" + results.size() + ", failures=" + failures.size()
+        + (dispatchSkew < 0 ? "" : ", dispatchSkew=" + dispatchSkew + "ns")
+        + (unsynchronized.isEmpty() ? "" : ", unsynchronized=" + unsynchronized.size()) + '}';
+  }
+}
@@ -1,9 +1,22 @@
 package io.github.przybandrzej.yeelight;
 
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 public enum Model {
-  MONO("mono"), COLOR("colorb"), STRIPE("stripe"), CEILING("ceiling"), BSLAMP("bslamp");
+  MONO("mono"), COLOR("colorb"), STRIPE("stripe"), CEILING("ceiling"), BSLAMP("bslamp"),
+  /**
+   * A model this version does not know yet, e.g. a newer bulb. What it can do is told by its supported methods.
+   */
+  UNKNOWN("unknown");
+
+  private static final Map<String, Model> BY_VALUE = new HashMap<>();
+
+  static {
+    for(Model model : values()) {
+      BY_VALUE.put(model.value, model);
+    }
+  }
 
   private String value;
 
@@ -16,6 +29,17 @@ public enum Model {
   }
 
   public static Model get(String name) {
-    return Arrays.stream(Model.values()).filter(it -> it.value.equals(name)).findFirst().orElseThrow(() -> new RuntimeException("No such value"));
+    Model model = BY_VALUE.get(name);
+    if(model == null) {
+      throw new RuntimeException("No such value");
+    }
+    return model;
+  }
+
+  /**
+   * @return Model with the advertised name, {@link #UNKNOWN} if there is none
+   */
+  static Model find(String name) {
+    return BY_VALUE.getOrDefault(name, UNKNOWN);
   }
 }
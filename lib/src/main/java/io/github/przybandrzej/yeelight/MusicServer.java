@@ -0,0 +1,128 @@
+package io.github.przybandrzej.yeelight;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Local TCP server the devices connect back to when music mode is turned on with "set_music". While connected, a
+ * device accepts commands on that connection without any quota and does not send responses.
+ * One server can serve any number of devices.
+ */
+public class MusicServer implements Closeable {
+
+  private static final int ACCEPT_TIMEOUT = 5000;
+
+  private static final class Expectation {
+    private final Connection.Listener listener;
+    private final CompletableFuture<Connection> future = new CompletableFuture<>();
+
+    private Expectation(Connection.Listener listener) {
+      this.listener = listener;
+    }
+  }
+
+  private final ConnectionEngine engine;
+  private final ServerSocketChannel serverChannel;
+  private final String localAddr;
+  private final Map<InetAddress, Expectation> expected = new ConcurrentHashMap<>();
+
+  /**
+   * @param localAddr IP of this machine in the local network, the devices connect to it
+   * @param localPort Port to listen on (0 picks a free one)
+   * @throws IOException if the server cannot be bound
+   */
+  public MusicServer(String localAddr, int localPort) throws IOException {
+    this(localAddr, localPort, ConnectionEngine.getDefault());
+  }
+
+  public MusicServer(String localAddr, int localPort, ConnectionEngine engine) throws IOException {
+    this.localAddr = localAddr;
+    this.engine = engine;
+    this.serverChannel = ServerSocketChannel.open();
+    try {
+      this.serverChannel.bind(new InetSocketAddress(localAddr, localPort));
+      engine.listen(serverChannel, this::acceptPending);
+    } catch(IOException e) {
+      serverChannel.close();
+      throw e;
+    }
+  }
+
+  public String getHost() {
+    return localAddr;
+  }
+
+  public int getPort() {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverChannel.close();
+    IOException closed = new IOException("Music server closed");
+    expected.values().forEach(expectation -> expectation.future.completeExceptionally(closed));
+  }
+
+  /**
+   * Wait for a device to connect
+   *
+   * @param device   Address the device connects from
+   * @param listener Receiver of the music connection events
+   * @return Future completed with the connection once the device has connected
+   */
+  CompletableFuture<Connection> expect(InetAddress device, Connection.Listener listener) {
+    Expectation expectation = new Expectation(listener);
+    Expectation previous = expected.put(device, expectation);
+    if(previous != null) {
+      previous.future.completeExceptionally(new IOException("Superseded by a new music mode request"));
+    }
+    expectation.future.whenComplete((connection, throwable) -> expected.remove(device, expectation));
+    engine.schedule(() -> expectation.future.completeExceptionally(
+        new TimeoutException("The device did not connect to the music server")), ACCEPT_TIMEOUT, TimeUnit.MILLISECONDS);
+    return expectation.future;
+  }
+
+  private void acceptPending() {
+    while(true) {
+      SocketChannel channel;
+      try {
+        channel = serverChannel.accept();
+      } catch(IOException e) {
+        return;
+      }
+      if(channel == null) {
+        return;
+      }
+      try {
+        accepted(channel);
+      } catch(IOException e) {
+        try {
+          channel.close();
+        } catch(IOException ignored) {
+        }
+      }
+    }
+  }
+
+  private void accepted(SocketChannel channel) throws IOException {
+    InetAddress remote = ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+    Expectation expectation = expected.get(remote);
+    if(expectation == null) {
+      channel.close();
+      return;
+    }
+    Connection connection = engine.register(channel, expectation.listener);
+    if(!expectation.future.complete(connection)) {
+      connection.close(new IOException("Music mode request is no longer pending"));
+    }
+  }
+}
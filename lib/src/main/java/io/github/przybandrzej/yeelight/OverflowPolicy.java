@@ -0,0 +1,23 @@
+package io.github.przybandrzej.yeelight;
+
+/**
+ * What a publisher does with a new event when the buffer of a slow subscriber is full
+ */
+public enum OverflowPolicy {
+  /**
+   * Drop the oldest buffered event
+   */
+  DROP_OLDEST,
+  /**
+   * Replace the buffered event of the same kind (e.g. the same property) with the new one, so only the latest value of
+   * each kind is delivered; drop the oldest event if there is none
+   */
+  CONFLATE,
+  /**
+   * Wait for the subscriber to make room. The wait happens on a thread of the delivery executor, never on the thread
+   * reading the connection or on the callback executor of the engine. The events waiting meanwhile are bounded by the
+   * buffer size as well; when they are full too, the subscribers holding them up fail with an
+   * {@link IllegalStateException}.
+   */
+  BLOCK
+}
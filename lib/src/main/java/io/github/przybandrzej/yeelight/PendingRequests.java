@@ -0,0 +1,224 @@
+package io.github.przybandrzej.yeelight;
+
+import io.github.przybandrzej.yeelight.exception.QuotaExceededException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Commands of one connection waiting for their response, keyed by the id allocated from the connection's own id
+ * space. Entries leave the table when answered or when their timeout elapses. A full table first drops the commands
+ * whose timeout has elapsed, then the oldest command sent without a timeout. When every entry may still be answered in
+ * time, the new command fails with {@link QuotaExceededException} instead.
+ */
+final class PendingRequests {
+
+  static final int DEFAULT_CAPACITY = 1024;
+
+  private final AtomicInteger ids;
+  private final int capacity;
+  private final Map<Integer, Entry> entries = new LinkedHashMap<>();
+  private final AtomicLong timeouts = new AtomicLong();
+  private final AtomicLong orphaned = new AtomicLong();
+
+  /**
+   * @param ids      Id space of the connection (shared by the connections of a pool)
+   * @param capacity Maximum number of commands awaiting a response
+   */
+  PendingRequests(AtomicInteger ids, int capacity) {
+    this.ids = ids;
+    this.capacity = capacity;
+  }
+
+  /**
+   * @return Next id, always in 1 - {@link Integer#MAX_VALUE}
+   */
+  int nextId() {
+    return Math.floorMod(ids.getAndIncrement(), Integer.MAX_VALUE) + 1;
+  }
+
+  /**
+   * @param id      Id of the command
+   * @param timeout Response timeout in milliseconds, counted from the write (&lt;= 0 means no timeout)
+   * @return Future of the response, already failed if the table is full
+   */
+  CompletableFuture<CommandResult> register(int id, long timeout) {
+    Entry entry = new Entry(timeout);
+    CompletableFuture<CommandResult> future = entry.future;
+    List<CompletableFuture<CommandResult>> expired = new ArrayList<>();
+    List<CompletableFuture<CommandResult>> evicted = new ArrayList<>();
+    boolean full;
+    synchronized(entries) {
+      Entry previous = entries.remove(id);
+      if(previous != null) {
+        evicted.add(previous.future);
+      }
+      if(entries.size() >= capacity) {
+        evict(expired, evicted);
+      }
+      full = entries.size() >= capacity;
+      if(!full) {
+        entries.put(id, entry);
+      }
+    }
+    if(full) {
+      future.completeExceptionally(new QuotaExceededException());
+      return future;
+    }
+    future.whenComplete((result, throwable) -> remove(id, entry));
+    for(CompletableFuture<CommandResult> late : expired) {
+      if(late.completeExceptionally(new TimeoutException("No response in time"))) {
+        timeouts.incrementAndGet();
+      }
+    }
+    for(CompletableFuture<CommandResult> oldest : evicted) {
+      if(oldest.completeExceptionally(new TimeoutException("Evicted from the pending request table"))) {
+        timeouts.incrementAndGet();
+      }
+    }
+    return future;
+  }
+
+  /**
+   * Make room in the full table: the entries whose timeout elapsed, or else the oldest one without a timeout
+   */
+  private void evict(List<CompletableFuture<CommandResult>> expired, List<CompletableFuture<CommandResult>> evicted) {
+    long now = System.nanoTime();
+    Entry oldestUntimed = null;
+    Iterator<Entry> iterator = entries.values().iterator();
+    while(iterator.hasNext()) {
+      Entry entry = iterator.next();
+      if(entry.isExpired(now)) {
+        expired.add(entry.future);
+        iterator.remove();
+      } else if(oldestUntimed == null && entry.timeout <= 0) {
+        oldestUntimed = entry;
+      }
+    }
+    if(expired.isEmpty() && oldestUntimed != null) {
+      entries.values().remove(oldestUntimed);
+      evicted.add(oldestUntimed.future);
+    }
+  }
+
+  /**
+   * @param id  Id of the written command
+   * @param now Current {@link System#nanoTime()}
+   */
+  void written(int id, long now) {
+    synchronized(entries) {
+      Entry entry = entries.get(id);
+      if(entry != null) {
+        entry.writtenAt = now;
+      }
+    }
+  }
+
+  /**
+   * @param id     Id of the answered command
+   * @param result Result sent by the device
+   * @param now    Current {@link System#nanoTime()}
+   * @return Time since the command was written, -1 if the response answers no pending command
+   */
+  long complete(int id, CommandResult result, long now) {
+    Entry entry;
+    synchronized(entries) {
+      entry = entries.remove(id);
+    }
+    if(entry == null || !entry.future.complete(result)) {
+      orphaned.incrementAndGet();
+      return -1;
+    }
+    long written = entry.writtenAt;
+    return written == 0 ? -1 : now - written;
+  }
+
+  void expire(int id, CompletableFuture<CommandResult> future) {
+    if(future.completeExceptionally(new TimeoutException("No response for command " + id))) {
+      timeouts.incrementAndGet();
+    }
+  }
+
+  void failAll(IOException cause) {
+    List<CompletableFuture<CommandResult>> failed;
+    synchronized(entries) {
+      failed = new ArrayList<>(entries.size());
+      entries.values().forEach(entry -> failed.add(entry.future));
+      entries.clear();
+    }
+    failed.forEach(future -> future.completeExceptionally(cause));
+  }
+
+  /**
+   * Fail the commands already written, the ones still queued for sending are kept
+   *
+   * @param cause Failure of the commands
+   */
+  void failWritten(IOException cause) {
+    List<CompletableFuture<CommandResult>> failed = new ArrayList<>();
+    synchronized(entries) {
+      Iterator<Entry> iterator = entries.values().iterator();
+      while(iterator.hasNext()) {
+        Entry entry = iterator.next();
+        if(entry.writtenAt != 0) {
+          failed.add(entry.future);
+          iterator.remove();
+        }
+      }
+    }
+    failed.forEach(future -> future.completeExceptionally(cause));
+  }
+
+  int size() {
+    synchronized(entries) {
+      return entries.size();
+    }
+  }
+
+  long getTimeouts() {
+    return timeouts.get();
+  }
+
+  long getOrphaned() {
+    return orphaned.get();
+  }
+
+  private void remove(int id, Entry entry) {
+    synchronized(entries) {
+      entries.remove(id, entry);
+    }
+  }
+
+  /**
+   * A command awaiting its response, with its own write time so that ids from a shared id space never collide
+   */
+  private static final class Entry {
+    private final CompletableFuture<CommandResult> future = new CompletableFuture<>();
+    /**
+     * Response timeout in nanoseconds, 0 for none
+     */
+    private final long timeout;
+    /**
+     * {@link System#nanoTime()} of the write, 0 until written
+     */
+    private volatile long writtenAt;
+
+    private Entry(long timeout) {
+      this.timeout = timeout > 0 ? TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+    }
+
+    private boolean isExpired(long now) {
+      long written = writtenAt;
+      return timeout > 0 && written != 0 && now - written >= timeout;
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package io.github.przybandrzej.yeelight;
+
+/**
+ * Enumeration for the way a {@link DeviceControlPool} picks the connection for the next command
+ */
+public enum PoolStrategy {
+  /**
+   * Use the connections in turn
+   */
+  ROUND_ROBIN,
+  /**
+   * Use the connection with the fewest queued commands and the most quota left
+   */
+  LEAST_LOADED
+}
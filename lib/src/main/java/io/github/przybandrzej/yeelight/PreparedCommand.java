@@ -0,0 +1,55 @@
+package io.github.przybandrzej.yeelight;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A command already encoded, registered and granted its quota token, so that sending it only takes a single write.
+ * Used to release the commands of a {@link DeviceGroup} together.
+ */
+final class PreparedCommand {
+
+  private final Connection connection;
+  private final ByteBuffer frame;
+  private final CompletableFuture<CommandResult> future;
+  private final Runnable onWritten;
+
+  PreparedCommand(Connection connection, ByteBuffer frame, CompletableFuture<CommandResult> future, Runnable onWritten) {
+    this.connection = connection;
+    this.frame = frame;
+    this.future = future;
+    this.onWritten = onWritten;
+  }
+
+  EventLoop getLoop() {
+    return connection.getLoop();
+  }
+
+  CompletableFuture<CommandResult> getFuture() {
+    return future;
+  }
+
+  /**
+   * Hand the frame to the socket. {@link #written()} must be called afterwards, this only does the write so that
+   * consecutive writes follow each other as closely as possible.
+   *
+   * @return Time of the write, in {@link System#nanoTime()} units, -1 if the write failed
+   */
+  long write() {
+    try {
+      connection.write(frame);
+    } catch(IOException e) {
+      future.completeExceptionally(e);
+      return -1;
+    }
+    return System.nanoTime();
+  }
+
+  /**
+   * Start waiting for the response (e.g. arm the response timeout)
+   */
+  void written() {
+    onWritten.run();
+  }
+}
@@ -0,0 +1,45 @@
+package io.github.przybandrzej.yeelight;
+
+/**
+ * Change of a single property between two snapshots of a device
+ *
+ * @param <T> Type of the property value
+ */
+public final class PropertyChange<T> {
+
+  private final DeviceProperty property;
+  private final T oldValue;
+  private final T newValue;
+  private final DeviceState state;
+
+  PropertyChange(DeviceProperty property, T oldValue, T newValue, DeviceState state) {
+    this.property = property;
+    this.oldValue = oldValue;
+    this.newValue = newValue;
+    this.state = state;
+  }
+
+  public DeviceProperty getProperty() {
+    return property;
+  }
+
+  public T getOldValue() {
+    return oldValue;
+  }
+
+  public T getNewValue() {
+    return newValue;
+  }
+
+  /**
+   * @return Snapshot the change has produced, holding the values of the other properties at the same version
+   */
+  public DeviceState getState() {
+    return state;
+  }
+
+  @Override
+  public String toString() {
+    return property.getName() + ": " + oldValue + " -> " + newValue + " (version " + state.getVersion() + ")";
+  }
+}
@@ -0,0 +1,11 @@
+package io.github.przybandrzej.yeelight;
+
+/**
+ * Receiver of the changes of a property, see {@link DeviceStateStore#subscribe(DeviceProperty, Class, PropertyListener)}
+ *
+ * @param <T> Type of the property value
+ */
+@FunctionalInterface
+public interface PropertyListener<T> {
+  void onChange(PropertyChange<T> change);
+}
@@ -0,0 +1,66 @@
+package io.github.przybandrzej.yeelight;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How a lost connection is re-established: with an exponentially growing, jittered delay between the attempts, so
+ * that many devices dropped by the same access point do not all reconnect at the same moment. Commands sent while
+ * the connection is down are kept (up to a limit) and sent once it is back.
+ */
+public final class ReconnectPolicy {
+  private static final long DEFAULT_INITIAL_DELAY = 500;
+  private static final long DEFAULT_MAX_DELAY = 30000;
+  private static final int DEFAULT_MAX_REPLAYED_COMMANDS = 64;
+
+  private final long initialDelay;
+  private final long maxDelay;
+  private final int maxAttempts;
+  private final int maxReplayedCommands;
+
+  /**
+   * @param initialDelay        Delay before the first attempt (&gt; 0)
+   * @param maxDelay            Upper bound of the delay, which doubles after each failed attempt
+   * @param unit                Unit of the delays
+   * @param maxAttempts         Number of attempts before giving up, 0 to never give up
+   * @param maxReplayedCommands Number of commands kept while the connection is down, the following ones fail
+   */
+  public ReconnectPolicy(long initialDelay, long maxDelay, TimeUnit unit, int maxAttempts, int maxReplayedCommands) {
+    if(initialDelay <= 0 || maxDelay < initialDelay) {
+      throw new IllegalArgumentException("The delays must be positive and the maximum delay not below the initial one.");
+    }
+    if(maxAttempts < 0 || maxReplayedCommands < 0) {
+      throw new IllegalArgumentException("The limits cannot be negative.");
+    }
+    this.initialDelay = unit.toNanos(initialDelay);
+    this.maxDelay = unit.toNanos(maxDelay);
+    this.maxAttempts = maxAttempts;
+    this.maxReplayedCommands = maxReplayedCommands;
+  }
+
+  /**
+   * @return Policy retrying forever, from 500 ms up to 30 s between the attempts, keeping up to 64 commands
+   */
+  public static ReconnectPolicy defaults() {
+    return new ReconnectPolicy(DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY, TimeUnit.MILLISECONDS, 0,
+        DEFAULT_MAX_REPLAYED_COMMANDS);
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  public int getMaxReplayedCommands() {
+    return maxReplayedCommands;
+  }
+
+  /**
+   * @param attempt Number of the failed attempts so far
+   * @return Delay before the next attempt in nanoseconds, between half and the whole of the backed-off delay
+   */
+  long delay(int attempt) {
+    long delay = attempt >= Long.numberOfLeadingZeros(initialDelay) - 1 ? maxDelay
+        : Math.min(maxDelay, initialDelay << attempt);
+    return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+  }
+}
@@ -0,0 +1,59 @@
+package io.github.przybandrzej.yeelight;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the tasks given to it one after another, in order, on the underlying executor. Keeps the callbacks of a
+ * device ordered even when the engine runs them on a pool or on virtual threads.
+ */
+final class SerialExecutor implements Executor {
+
+  private final Executor executor;
+  private final Queue<Runnable> tasks = new ArrayDeque<>();
+  private boolean running = false;
+
+  SerialExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    synchronized(tasks) {
+      tasks.add(task);
+      if(running) {
+        return;
+      }
+      running = true;
+    }
+    try {
+      executor.execute(this::drain);
+    } catch(RuntimeException e) {
+      synchronized(tasks) {
+        tasks.clear();
+        running = false;
+      }
+      throw e;
+    }
+  }
+
+  private void drain() {
+    while(true) {
+      Runnable task;
+      synchronized(tasks) {
+        task = tasks.poll();
+        if(task == null) {
+          running = false;
+          return;
+        }
+      }
+      try {
+        task.run();
+      } catch(RuntimeException e) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+      }
+    }
+  }
+}
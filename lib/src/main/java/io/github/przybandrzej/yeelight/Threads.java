@@ -0,0 +1,47 @@
+package io.github.przybandrzej.yeelight;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threading defaults which depend on the Java version. This is the Java 8 variant, replaced by the one in
+ * META-INF/versions/21 of the multi-release JAR on newer runtimes.
+ */
+final class Threads {
+
+  private static final Executor DELIVERY = Executors.newCachedThreadPool(new ThreadFactory() {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "yeelight-delivery-" + count.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private Threads() {
+  }
+
+  /**
+   * Callbacks run directly on the event loop thread which has received the notification, so they must not block.
+   *
+   * @return Executor of the callbacks of an engine created without one
+   */
+  static Executor defaultCallbackExecutor() {
+    return Runnable::run;
+  }
+
+  /**
+   * Unbounded, since a publisher with {@link OverflowPolicy#BLOCK} holds one of its threads while a slow subscriber
+   * makes room.
+   *
+   * @return Executor of the background work which may block: calling the subscribers of the publishers, buffering
+   * their blocking events, reconnecting
+   */
+  static Executor defaultDeliveryExecutor() {
+    return DELIVERY;
+  }
+}
@@ -0,0 +1,55 @@
+package io.github.przybandrzej.yeelight;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket matching the way Yeelight devices count their quotas: a spent token is returned exactly one window
+ * after it was taken, so no window of that length ever sees more than {@code capacity} commands.
+ */
+final class TokenBucket {
+
+  static final int CONNECTION_QUOTA = 60;
+  static final int DEVICE_QUOTA = 144;
+  static final long QUOTA_WINDOW = TimeUnit.MINUTES.toNanos(1);
+
+  private final long[] spent;
+  private final long window;
+  private int head = 0;
+  private int size = 0;
+
+  TokenBucket(int capacity, long window) {
+    this.spent = new long[capacity];
+    this.window = window;
+  }
+
+  synchronized boolean tryAcquire(long now) {
+    expire(now);
+    if(size == spent.length) {
+      return false;
+    }
+    spent[(head + size) % spent.length] = now;
+    size++;
+    return true;
+  }
+
+  synchronized int available(long now) {
+    expire(now);
+    return spent.length - size;
+  }
+
+  /**
+   * @param now Current {@link System#nanoTime()}
+   * @return Nanoseconds until the next token is returned, 0 if one is available now
+   */
+  synchronized long nanosUntilAvailable(long now) {
+    expire(now);
+    return size < spent.length ? 0 : spent[head] + window - now;
+  }
+
+  private void expire(long now) {
+    while(size > 0 && now - spent[head] >= window) {
+      head = (head + 1) % spent.length;
+      size--;
+    }
+  }
+}
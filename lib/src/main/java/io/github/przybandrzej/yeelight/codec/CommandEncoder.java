@@ -0,0 +1,228 @@
+package io.github.przybandrzej.yeelight.codec;
+
+import io.github.przybandrzej.yeelight.Command;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes commands as {@code {"id":1,"method":"set_bright","params":[50,"smooth",500]}\r\n} frames straight into a
+ * reusable byte buffer. Integer and string parameters are written without any intermediate objects, so encoding
+ * does not allocate once the buffer has grown to the size of the largest frame.
+ * <p>
+ * The frames are the same as those of Gson with HTML escaping disabled. Parameters can only be strings, numbers,
+ * booleans or null, see {@link #isSupported(Object)}.
+ * <p>
+ * Not thread-safe, each connection uses its own encoder.
+ */
+public final class CommandEncoder {
+
+  private static final int INITIAL_CAPACITY = 256;
+  private static final byte[] ID = "{\"id\":".getBytes();
+  private static final byte[] METHOD = ",\"method\":".getBytes();
+  private static final byte[] PARAMS = ",\"params\":[".getBytes();
+  private static final byte[] END = "]}\r\n".getBytes();
+  private static final byte[] NULL = "null".getBytes();
+  private static final byte[] TRUE = "true".getBytes();
+  private static final byte[] FALSE = "false".getBytes();
+  private static final byte[] MIN_INT = "-2147483648".getBytes();
+  private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+  private byte[] bytes = new byte[INITIAL_CAPACITY];
+  private int length = 0;
+  private ByteBuffer view = ByteBuffer.wrap(bytes);
+
+  /**
+   * @param param Parameter of a command
+   * @return true if the parameter is a string, a boolean, null or a finite number of a primitive wrapper type
+   */
+  public static boolean isSupported(Object param) {
+    if(param == null || param instanceof String || param instanceof Integer || param instanceof Boolean
+        || param instanceof Long || param instanceof Short || param instanceof Byte) {
+      return true;
+    }
+    if(param instanceof Double || param instanceof Float) {
+      double value = ((Number) param).doubleValue();
+      return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+    return false;
+  }
+
+  /**
+   * Encode a single command
+   *
+   * @param command Command to encode
+   * @return Buffer holding the frame, valid until the next call on this encoder
+   */
+  public ByteBuffer encode(Command command) {
+    reset();
+    append(command);
+    return buffer();
+  }
+
+  /**
+   * Start a new sequence of frames
+   */
+  public void reset() {
+    length = 0;
+  }
+
+  /**
+   * Encode a command after the frames already in the buffer
+   *
+   * @param command Command to encode
+   * @throws IllegalArgumentException if a parameter is not supported
+   */
+  public void append(Command command) {
+    write(ID);
+    writeInt(command.getId());
+    write(METHOD);
+    writeString(command.getMethod());
+    write(PARAMS);
+    Object[] params = command.getParams();
+    if(params != null) {
+      for(int i = 0; i < params.length; i++) {
+        if(i > 0) {
+          writeByte(',');
+        }
+        writeValue(params[i]);
+      }
+    }
+    write(END);
+  }
+
+  /**
+   * @return Buffer holding every frame appended since the last reset, valid until the next call on this encoder
+   */
+  public ByteBuffer buffer() {
+    view.limit(length).position(0);
+    return view;
+  }
+
+  private void writeValue(Object value) {
+    if(value instanceof Integer) {
+      writeInt((Integer) value);
+    } else if(value instanceof String) {
+      writeString((String) value);
+    } else if(value == null) {
+      write(NULL);
+    } else if(value instanceof Boolean) {
+      write((Boolean) value ? TRUE : FALSE);
+    } else if(isSupported(value)) {
+      writeAscii(value.toString());
+    } else {
+      throw new IllegalArgumentException("Unsupported command parameter: " + value);
+    }
+  }
+
+  private void writeInt(int value) {
+    if(value == Integer.MIN_VALUE) {
+      write(MIN_INT);
+      return;
+    }
+    if(value < 0) {
+      writeByte('-');
+      value = -value;
+    }
+    int digits = 1;
+    for(int limit = 10; digits < 10 && value >= limit; limit *= 10) {
+      digits++;
+    }
+    ensureCapacity(digits);
+    for(int i = length + digits - 1; i >= length; i--) {
+      bytes[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    length += digits;
+  }
+
+  private void writeString(String value) {
+    ensureCapacity(value.length() + 2);
+    bytes[length++] = '"';
+    for(int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if(c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+        ensureCapacity(2);
+        bytes[length++] = (byte) c;
+      } else {
+        writeSpecial(value, i, c);
+        if(Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+          i++;
+        }
+      }
+    }
+    writeByte('"');
+  }
+
+  private void writeSpecial(String value, int index, char c) {
+    if(c == '"' || c == '\\') {
+      writeByte('\\');
+      writeByte(c);
+    } else if(c == '\n') {
+      writeByte('\\');
+      writeByte('n');
+    } else if(c == '\r') {
+      writeByte('\\');
+      writeByte('r');
+    } else if(c == '\t') {
+      writeByte('\\');
+      writeByte('t');
+    } else if(c == '\b') {
+      writeByte('\\');
+      writeByte('b');
+    } else if(c == '\f') {
+      writeByte('\\');
+      writeByte('f');
+    } else if(c < 0x20 || c == '\u2028' || c == '\u2029') {
+      writeByte('\\');
+      writeByte('u');
+      writeByte(HEX[c >> 12]);
+      writeByte(HEX[(c >> 8) & 0xF]);
+      writeByte(HEX[(c >> 4) & 0xF]);
+      writeByte(HEX[c & 0xF]);
+    } else if(c < 0x800) {
+      writeByte(0xC0 | (c >> 6));
+      writeByte(0x80 | (c & 0x3F));
+    } else if(Character.isHighSurrogate(c) && index + 1 < value.length()
+        && Character.isLowSurrogate(value.charAt(index + 1))) {
+      int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+      writeByte(0xF0 | (codePoint >> 18));
+      writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+      writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+      writeByte(0x80 | (codePoint & 0x3F));
+    } else if(Character.isSurrogate(c)) {
+      writeByte('?');
+    } else {
+      writeByte(0xE0 | (c >> 12));
+      writeByte(0x80 | ((c >> 6) & 0x3F));
+      writeByte(0x80 | (c & 0x3F));
+    }
+  }
+
+  private void writeAscii(String value) {
+    ensureCapacity(value.length());
+    for(int i = 0; i < value.length(); i++) {
+      bytes[length++] = (byte) value.charAt(i);
+    }
+  }
+
+  private void write(byte[] value) {
+    ensureCapacity(value.length);
+    System.arraycopy(value, 0, bytes, length, value.length);
+    length += value.length;
+  }
+
+  private void writeByte(int value) {
+    ensureCapacity(1);
+    bytes[length++] = (byte) value;
+  }
+
+  private void ensureCapacity(int additional) {
+    if(length + additional <= bytes.length) {
+      return;
+    }
+    byte[] grown = new byte[Math.max(bytes.length * 2, length + additional)];
+    System.arraycopy(bytes, 0, grown, 0, length);
+    bytes = grown;
+    view = ByteBuffer.wrap(bytes);
+  }
+}
@@ -0,0 +1,480 @@
+package io.github.przybandrzej.yeelight.codec;
+
+import io.github.przybandrzej.yeelight.CommandResult;
+import io.github.przybandrzej.yeelight.exception.BadResponseException;
+import io.github.przybandrzej.yeelight.utils.Utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a single message received from a device, either a command response or a "props" notification, in one pass
+ * over the raw bytes. Responses are turned into {@link CommandResult}s and notifications into one call per changed
+ * property, without building intermediate maps or boxed numbers. Property names and the common values ("on", "off",
+ * "ok") are matched against constants instead of being allocated.
+ * <p>
+ * Not thread-safe, each connection uses its own decoder.
+ */
+public final class MessageDecoder {
+
+  /**
+   * Receiver of the decoded messages
+   */
+  public interface Handler {
+    void onResult(int id, CommandResult result);
+
+    void onProperty(String name, int value);
+
+    void onProperty(String name, String value);
+
+    /**
+     * Called after the last property of a notification
+     */
+    void onNotification();
+  }
+
+  private static final String[] KNOWN_VALUES = {"ok", "on", "off", "props"};
+  private static final String[] KNOWN_KEYS = {"id", "method", "params", "result", "error", "code", "message", "type",
+      "delay", "mix"};
+
+  /**
+   * Open addressing table of the known keys and property names. The multiplier of {@link #hash} gives every name of
+   * the protocol its own slot, so a lookup is a single comparison; probing keeps the table correct if names are added.
+   */
+  private static final int KEY_TABLE_MASK = 127;
+  private static final String[] KEY_TABLE = keyTable();
+
+  private byte[] data;
+  private int pos;
+  private int end;
+
+  /**
+   * @param data    Buffer holding the message
+   * @param offset  Start of the message
+   * @param length  Length of the message
+   * @param handler Receiver of the decoded message
+   * @throws BadResponseException if the message is not a valid response or notification
+   */
+  public void decode(byte[] data, int offset, int length, Handler handler) throws BadResponseException {
+    this.data = data;
+    this.pos = offset;
+    this.end = offset + length;
+    int id = -1;
+    boolean props = false;
+    int paramsAt = -1;
+    CommandResult result = null;
+    expect('{');
+    if(!consume('}')) {
+      do {
+        String key = readKey();
+        expect(':');
+        switch(key) {
+          case "id":
+            id = readInt();
+            break;
+          case "method":
+            props = "props".equals(readString());
+            break;
+          case "params":
+            paramsAt = pos;
+            skipValue();
+            break;
+          case "result":
+            result = readResult();
+            break;
+          case "error":
+            result = readError();
+            break;
+          default:
+            skipValue();
+        }
+      } while(consume(','));
+      expect('}');
+    }
+    if(id >= 0 && result != null) {
+      handler.onResult(id, result);
+    } else if(props && paramsAt >= 0) {
+      pos = paramsAt;
+      readProperties(handler);
+      handler.onNotification();
+    } else if(id < 0 && !props) {
+      throw new BadResponseException();
+    }
+  }
+
+  private CommandResult readResult() throws BadResponseException {
+    CommandResult result = new CommandResult();
+    result.setOk(true);
+    expect('[');
+    if(consume(']')) {
+      return result;
+    }
+    if(peek() == '{') {
+      result.setCronSettings(readCron());
+      while(consume(',')) {
+        skipValue();
+      }
+      expect(']');
+      return result;
+    }
+    List<Object> params = new ArrayList<>();
+    do {
+      skipWhitespace();
+      params.add(peek() == '"' ? readString() : readValue());
+    } while(consume(','));
+    expect(']');
+    if(params.size() != 1 || !"ok".equals(params.get(0))) {
+      result.setParams(params.toArray());
+    }
+    return result;
+  }
+
+  private CommandResult.CronSettings readCron() throws BadResponseException {
+    CommandResult.CronSettings cron = new CommandResult.CronSettings();
+    expect('{');
+    if(!consume('}')) {
+      do {
+        String key = readKey();
+        expect(':');
+        switch(key) {
+          case "type":
+            cron.setType(readInt());
+            break;
+          case "delay":
+            cron.setDelay(readInt());
+            break;
+          case "mix":
+            cron.setMix(readInt());
+            break;
+          default:
+            skipValue();
+        }
+      } while(consume(','));
+      expect('}');
+    }
+    return cron;
+  }
+
+  private CommandResult readError() throws BadResponseException {
+    CommandResult result = new CommandResult();
+    CommandResult.Error error = new CommandResult.Error();
+    expect('{');
+    if(!consume('}')) {
+      do {
+        String key = readKey();
+        expect(':');
+        switch(key) {
+          case "code":
+            error.setCode(readInt());
+            break;
+          case "message":
+            error.setMessage(readString());
+            break;
+          default:
+            skipValue();
+        }
+      } while(consume(','));
+      expect('}');
+    }
+    result.setOk(false);
+    result.setError(error);
+    return result;
+  }
+
+  private void readProperties(Handler handler) throws BadResponseException {
+    expect('{');
+    if(consume('}')) {
+      return;
+    }
+    do {
+      String name = readKey();
+      expect(':');
+      skipWhitespace();
+      byte next = peek();
+      if(next == '"') {
+        handler.onProperty(name, readString());
+      } else if(next == '-' || (next >= '0' && next <= '9')) {
+        handler.onProperty(name, readInt());
+      } else {
+        skipValue();
+      }
+    } while(consume(','));
+    expect('}');
+  }
+
+  private Object readValue() throws BadResponseException {
+    skipWhitespace();
+    byte next = peek();
+    if(next == '-' || (next >= '0' && next <= '9')) {
+      return readInt();
+    }
+    int start = pos;
+    skipValue();
+    return new String(data, start, pos - start, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Read a number, dropping any fraction or exponent and saturating out of range values the way the previous (int)
+   * cast of a double did
+   */
+  private int readInt() throws BadResponseException {
+    skipWhitespace();
+    boolean negative = consume('-');
+    long limit = negative ? Integer.MAX_VALUE + 1L : Integer.MAX_VALUE;
+    long value = 0;
+    int digits = 0;
+    while(pos < end && data[pos] >= '0' && data[pos] <= '9') {
+      value = Math.min(value * 10 + (data[pos++] - '0'), limit);
+      digits++;
+    }
+    if(digits == 0) {
+      throw new BadResponseException();
+    }
+    if(pos < end && (data[pos] == '.' || data[pos] == 'e' || data[pos] == 'E')) {
+      int start = pos - digits - (negative ? 1 : 0);
+      while(pos < end && isNumberPart(data[pos])) {
+        pos++;
+      }
+      return (int) Double.parseDouble(new String(data, start, pos - start, StandardCharsets.US_ASCII));
+    }
+    return (int) (negative ? -value : value);
+  }
+
+  private String readKey() throws BadResponseException {
+    skipWhitespace();
+    int start = pos + 1;
+    int stop = findStringEnd();
+    String known = matchKey(start, stop);
+    if(known != null) {
+      pos = stop + 1;
+      return known;
+    }
+    return readString();
+  }
+
+  private String readString() throws BadResponseException {
+    skipWhitespace();
+    int start = pos + 1;
+    int stop = findStringEnd();
+    boolean escaped = false;
+    for(int i = start; i < stop; i++) {
+      if(data[i] == '\\') {
+        escaped = true;
+        break;
+      }
+    }
+    pos = stop + 1;
+    if(!escaped) {
+      String known = match(start, stop, KNOWN_VALUES);
+      return known != null ? known : new String(data, start, stop - start, StandardCharsets.UTF_8);
+    }
+    return unescape(start, stop);
+  }
+
+  private String unescape(int start, int stop) throws BadResponseException {
+    StringBuilder builder = new StringBuilder(stop - start);
+    int chunk = start;
+    for(int i = start; i < stop; i++) {
+      if(data[i] != '\\') {
+        continue;
+      }
+      builder.append(new String(data, chunk, i - chunk, StandardCharsets.UTF_8));
+      if(i + 1 >= stop) {
+        // nothing left to escape
+        throw new BadResponseException();
+      }
+      char escape = (char) data[++i];
+      switch(escape) {
+        case 'n':
+          builder.append('\n');
+          break;
+        case 'r':
+          builder.append('\r');
+          break;
+        case 't':
+          builder.append('\t');
+          break;
+        case 'b':
+          builder.append('\b');
+          break;
+        case 'f':
+          builder.append('\f');
+          break;
+        case 'u':
+          if(i + 4 >= stop) {
+            throw new BadResponseException();
+          }
+          int code = 0;
+          for(int digit = 1; digit <= 4; digit++) {
+            code = code << 4 | hexDigit(data[i + digit]);
+          }
+          builder.append((char) code);
+          i += 4;
+          break;
+        default:
+          builder.append(escape);
+      }
+      chunk = i + 1;
+    }
+    builder.append(new String(data, chunk, stop - chunk, StandardCharsets.UTF_8));
+    return builder.toString();
+  }
+
+  private static int hexDigit(byte b) throws BadResponseException {
+    if(b >= '0' && b <= '9') {
+      return b - '0';
+    }
+    if(b >= 'a' && b <= 'f') {
+      return b - 'a' + 10;
+    }
+    if(b >= 'A' && b <= 'F') {
+      return b - 'A' + 10;
+    }
+    throw new BadResponseException();
+  }
+
+  /**
+   * @return Index of the closing quote of the string starting at the current position
+   */
+  private int findStringEnd() throws BadResponseException {
+    if(peek() != '"') {
+      throw new BadResponseException();
+    }
+    for(int i = pos + 1; i < end; i++) {
+      if(data[i] == '\\') {
+        i++;
+      } else if(data[i] == '"') {
+        return i;
+      }
+    }
+    throw new BadResponseException();
+  }
+
+  private String matchKey(int start, int stop) {
+    int hash = 0;
+    for(int i = start; i < stop; i++) {
+      hash = hash * 67 + data[i];
+    }
+    for(int slot = spread(hash); KEY_TABLE[slot] != null; slot = (slot + 1) & KEY_TABLE_MASK) {
+      if(matches(start, stop, KEY_TABLE[slot])) {
+        return KEY_TABLE[slot];
+      }
+    }
+    return null;
+  }
+
+  private String match(int start, int stop, String[] candidates) {
+    for(String candidate : candidates) {
+      if(matches(start, stop, candidate)) {
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+  private boolean matches(int start, int stop, String candidate) {
+    int length = stop - start;
+    if(candidate.length() != length) {
+      return false;
+    }
+    for(int i = 0; i < length; i++) {
+      if(data[start + i] != candidate.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String[] keyTable() {
+    String[] table = new String[KEY_TABLE_MASK + 1];
+    for(String[] names : new String[][]{KNOWN_KEYS, Utils.PROPERTIES}) {
+      for(String name : names) {
+        int slot = spread(hash(name));
+        while(table[slot] != null) {
+          slot = (slot + 1) & KEY_TABLE_MASK;
+        }
+        table[slot] = name;
+      }
+    }
+    return table;
+  }
+
+  private static int hash(String name) {
+    int hash = 0;
+    for(int i = 0; i < name.length(); i++) {
+      hash = hash * 67 + name.charAt(i);
+    }
+    return hash;
+  }
+
+  private static int spread(int hash) {
+    return (hash ^ (hash >>> 16)) & KEY_TABLE_MASK;
+  }
+
+  private void skipValue() throws BadResponseException {
+    skipWhitespace();
+    byte next = peek();
+    if(next == '"') {
+      pos = findStringEnd() + 1;
+    } else if(next == '{' || next == '[') {
+      skipContainer();
+    } else {
+      while(pos < end && data[pos] != ',' && data[pos] != '}' && data[pos] != ']') {
+        pos++;
+      }
+    }
+  }
+
+  /**
+   * Skip the object or array starting at the current position
+   */
+  private void skipContainer() throws BadResponseException {
+    int depth = 0;
+    do {
+      byte next = peek();
+      if(next == '"') {
+        pos = findStringEnd() + 1;
+        continue;
+      }
+      if(next == '{' || next == '[') {
+        depth++;
+      } else if(next == '}' || next == ']') {
+        depth--;
+      }
+      pos++;
+    } while(depth > 0);
+  }
+
+  private boolean isNumberPart(byte b) {
+    return (b >= '0' && b <= '9') || b == '.' || b == 'e' || b == 'E' || b == '+' || b == '-';
+  }
+
+  private void skipWhitespace() {
+    while(pos < end && (data[pos] == ' ' || data[pos] == '\t' || data[pos] == '\r' || data[pos] == '\n')) {
+      pos++;
+    }
+  }
+
+  private byte peek() throws BadResponseException {
+    if(pos >= end) {
+      throw new BadResponseException();
+    }
+    return data[pos];
+  }
+
+  private boolean consume(char c) {
+    skipWhitespace();
+    if(pos < end && data[pos] == c) {
+      pos++;
+      return true;
+    }
+    return false;
+  }
+
+  private void expect(char c) throws BadResponseException {
+    if(!consume(c)) {
+      throw new BadResponseException();
+    }
+  }
+}
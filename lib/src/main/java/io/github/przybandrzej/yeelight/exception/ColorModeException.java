@@ -1,4 +1,4 @@
 package io.github.przybandrzej.yeelight.exception;
 
-public class ColorModeException extends Exception {
+public class ColorModeException extends UnsupportedMethodException {
 }
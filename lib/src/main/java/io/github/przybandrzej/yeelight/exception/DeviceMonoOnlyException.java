@@ -1,4 +1,4 @@
 package io.github.przybandrzej.yeelight.exception;
 
-public class DeviceMonoOnlyException extends Exception {
+public class DeviceMonoOnlyException extends UnsupportedMethodException {
 }
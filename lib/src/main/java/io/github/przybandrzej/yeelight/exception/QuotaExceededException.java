@@ -0,0 +1,4 @@
+package io.github.przybandrzej.yeelight.exception;
+
+public class QuotaExceededException extends Exception {
+}
@@ -0,0 +1,4 @@
+package io.github.przybandrzej.yeelight.exception;
+
+public class UnsupportedMethodException extends Exception {
+}
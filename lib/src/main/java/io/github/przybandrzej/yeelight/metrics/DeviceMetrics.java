@@ -0,0 +1,149 @@
+package io.github.przybandrzej.yeelight.metrics;
+
+import io.github.przybandrzej.yeelight.AbstractDeviceControl;
+import io.github.przybandrzej.yeelight.Device;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measurements of one device connection. The counters only grow; rates (e.g. notifications per second) are left to the
+ * monitoring system. The quota, queue and pending request values are read from the connection when asked for.
+ * <p>
+ * Recording is lock-free and does not allocate, except the first time an error code is seen.
+ */
+public final class DeviceMetrics {
+
+  private final AbstractDeviceControl control;
+  private final LatencyHistogram roundTrip = new LatencyHistogram();
+  private final AtomicLong commands = new AtomicLong();
+  private final AtomicLong responses = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private final Map<Integer, AtomicLong> errorCodes = new ConcurrentHashMap<>();
+  private final AtomicLong notifications = new AtomicLong();
+  private final AtomicLong reconnects = new AtomicLong();
+
+  /**
+   * @param control Connection the measurements are taken on
+   */
+  public DeviceMetrics(AbstractDeviceControl control) {
+    this.control = control;
+  }
+
+  /**
+   * @return Measured device, e.g. to tag the meters with its id, model or name
+   */
+  public Device getDevice() {
+    return control.getDevice();
+  }
+
+  /**
+   * @return Time from writing a command to receiving its response
+   */
+  public LatencyHistogram getRoundTrip() {
+    return roundTrip;
+  }
+
+  /**
+   * @return Number of commands written, including the ones streamed in music mode
+   */
+  public long getCommands() {
+    return commands.get();
+  }
+
+  /**
+   * @return Number of responses received, successful or not
+   */
+  public long getResponses() {
+    return responses.get();
+  }
+
+  /**
+   * @return Number of error responses
+   */
+  public long getErrors() {
+    return errors.get();
+  }
+
+  /**
+   * @param code Error code, as in {@link io.github.przybandrzej.yeelight.CommandResult.Error#getCode()}
+   * @return Number of error responses with the code
+   */
+  public long getErrors(int code) {
+    AtomicLong counter = errorCodes.get(code);
+    return counter == null ? 0 : counter.get();
+  }
+
+  /**
+   * @return Error codes received so far
+   */
+  public int[] getErrorCodes() {
+    return errorCodes.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+  }
+
+  /**
+   * @return Number of "props" notifications received
+   */
+  public long getNotifications() {
+    return notifications.get();
+  }
+
+  /**
+   * @return Number of times the connection was re-established after being lost
+   */
+  public long getReconnects() {
+    return reconnects.get();
+  }
+
+  public int getRemainingQuota() {
+    return control.getRemainingQuota();
+  }
+
+  public int getQueuedCommands() {
+    return control.getQueuedCommands();
+  }
+
+  public int getPendingRequests() {
+    return control.getPendingRequests();
+  }
+
+  public long getTimeouts() {
+    return control.getTimeouts();
+  }
+
+  public long getOrphanedResponses() {
+    return control.getOrphanedResponses();
+  }
+
+  public void recordCommand() {
+    commands.incrementAndGet();
+  }
+
+  /**
+   * @param roundTripNanos Time from writing the command to receiving the response, -1 if unknown
+   */
+  public void recordResponse(long roundTripNanos) {
+    responses.incrementAndGet();
+    if(roundTripNanos >= 0) {
+      roundTrip.record(roundTripNanos);
+    }
+  }
+
+  public void recordError(int code) {
+    errors.incrementAndGet();
+    AtomicLong counter = errorCodes.get(code);
+    if(counter == null) {
+      counter = errorCodes.computeIfAbsent(code, key -> new AtomicLong());
+    }
+    counter.incrementAndGet();
+  }
+
+  public void recordNotification() {
+    notifications.incrementAndGet();
+  }
+
+  public void recordReconnect() {
+    reconnects.incrementAndGet();
+  }
+}
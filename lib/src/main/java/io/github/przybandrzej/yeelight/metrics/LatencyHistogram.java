@@ -0,0 +1,138 @@
+package io.github.przybandrzej.yeelight.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds with log-linear buckets: every power of two is split into 8 buckets, so a
+ * bucket is at most 12.5% wide relative to its values. Durations above about 68 seconds go to the last bucket.
+ * <p>
+ * Recording is lock-free and does not allocate. Readers see the counts as they are, a concurrent recording may or may
+ * not be included.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 36;
+  private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * @param nanos Duration to record, negative durations are recorded as 0
+   */
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts.incrementAndGet(bucket(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long current;
+    while(value > (current = max.get()) && !max.compareAndSet(current, value)) {
+      // retry until the maximum is at least this value
+    }
+  }
+
+  /**
+   * @return Number of recorded durations
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * @param unit Unit of the result
+   * @return Total of the recorded durations
+   */
+  public double getTotal(TimeUnit unit) {
+    return (double) sum.get() / unit.toNanos(1);
+  }
+
+  /**
+   * @param unit Unit of the result
+   * @return Longest recorded duration, 0 if none was recorded
+   */
+  public double getMax(TimeUnit unit) {
+    return (double) max.get() / unit.toNanos(1);
+  }
+
+  /**
+   * @param unit Unit of the result
+   * @return Mean of the recorded durations, 0 if none was recorded
+   */
+  public double getMean(TimeUnit unit) {
+    long recorded = count.get();
+    return recorded == 0 ? 0 : getTotal(unit) / recorded;
+  }
+
+  /**
+   * @param percentile Percentile from 0 to 100, e.g. 99.9
+   * @param unit       Unit of the result
+   * @return Upper bound of the bucket holding the percentile, 0 if nothing was recorded
+   */
+  public double getPercentile(double percentile, TimeUnit unit) {
+    long recorded = 0;
+    for(int i = 0; i < BUCKETS; i++) {
+      recorded += counts.get(i);
+    }
+    if(recorded == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(recorded * Math.min(100, Math.max(0, percentile)) / 100));
+    long seen = 0;
+    for(int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if(seen >= rank) {
+        return (double) Math.min(getBucketUpperBound(i), max.get()) / unit.toNanos(1);
+      }
+    }
+    return getMax(unit);
+  }
+
+  /**
+   * @return Number of buckets, for exporting the whole distribution
+   */
+  public int getBuckets() {
+    return BUCKETS;
+  }
+
+  /**
+   * @param bucket Bucket index
+   * @return Number of durations recorded in the bucket
+   */
+  public long getBucketCount(int bucket) {
+    return counts.get(bucket);
+  }
+
+  /**
+   * @param bucket Bucket index
+   * @return Largest duration of the bucket, in nanoseconds
+   */
+  public long getBucketUpperBound(int bucket) {
+    if(bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    if(bucket == BUCKETS - 1) {
+      return Long.MAX_VALUE;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+
+  private static int bucket(long value) {
+    if(value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    if(exponent > MAX_EXPONENT) {
+      return BUCKETS - 1;
+    }
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+}
@@ -0,0 +1,42 @@
+package io.github.przybandrzej.yeelight.metrics;
+
+/**
+ * Hook for exporting the {@link DeviceMetrics} to a monitoring system, e.g. registering Micrometer meters or JMX beans
+ * for each device. Listeners are registered with
+ * {@link io.github.przybandrzej.yeelight.ConnectionEngine#addMetricsListener(MetricsListener)} or found with
+ * {@link java.util.ServiceLoader} when an engine is created, by listing the implementation in
+ * {@code META-INF/services/io.github.przybandrzej.yeelight.metrics.MetricsListener}.
+ * <p>
+ * {@link #onRoundTrip} and {@link #onError} are called on the event loop threads for every response and must return
+ * quickly.
+ */
+public interface MetricsListener {
+
+  /**
+   * A device connection was opened, or it was already open when the listener was added
+   *
+   * @param metrics Metrics of the connection
+   */
+  void deviceAdded(DeviceMetrics metrics);
+
+  /**
+   * A device connection was closed for good
+   *
+   * @param metrics Metrics of the connection
+   */
+  void deviceRemoved(DeviceMetrics metrics);
+
+  /**
+   * @param metrics        Metrics of the connection the response arrived on
+   * @param roundTripNanos Time from writing the command to receiving the response
+   */
+  default void onRoundTrip(DeviceMetrics metrics, long roundTripNanos) {
+  }
+
+  /**
+   * @param metrics Metrics of the connection the response arrived on
+   * @param code    Error code sent by the device
+   */
+  default void onError(DeviceMetrics metrics, int code) {
+  }
+}
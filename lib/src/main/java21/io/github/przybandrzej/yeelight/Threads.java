@@ -0,0 +1,37 @@
+package io.github.przybandrzej.yeelight;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Threading defaults which depend on the Java version. This is the Java 21 variant of the multi-release JAR.
+ */
+final class Threads {
+
+  private static final Executor VIRTUAL_THREADS = Executors.newThreadPerTaskExecutor(
+      Thread.ofVirtual().name("yeelight-callback-", 0).factory());
+
+  private Threads() {
+  }
+
+  /**
+   * Callbacks run on virtual threads, so they may block (e.g. send a command and await its answer) without holding
+   * up the event loop or an OS thread.
+   *
+   * @return Executor of the callbacks of an engine created without one
+   */
+  static Executor defaultCallbackExecutor() {
+    return VIRTUAL_THREADS;
+  }
+
+  /**
+   * Unbounded, since a publisher with {@link OverflowPolicy#BLOCK} holds one of its threads while a slow subscriber
+   * makes room.
+   *
+   * @return Executor of the background work which may block: calling the subscribers of the publishers, buffering
+   * their blocking events, reconnecting
+   */
+  static Executor defaultDeliveryExecutor() {
+    return VIRTUAL_THREADS;
+  }
+}
@@ -0,0 +1,142 @@
+package io.github.przybandrzej.yeelight;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class CommandCoalescerTest {
+
+  private static final long WINDOW = 20;
+
+  private ConnectionEngine engine;
+  private RecordingSender sender;
+  private CommandCoalescer coalescer;
+
+  @BeforeEach
+  void start() throws IOException {
+    engine = new ConnectionEngine(1);
+    sender = new RecordingSender();
+    coalescer = new CommandCoalescer(sender, engine, WINDOW);
+  }
+
+  @AfterEach
+  void stop() throws IOException {
+    engine.close();
+  }
+
+  @Test
+  void newerSetReplacesThePendingOne() throws Exception {
+    CompletableFuture<CommandResult> first = coalescer.offer(new Command("set_bright", 50, "sudden", 0), 0);
+    CompletableFuture<CommandResult> second = coalescer.offer(new Command("set_bright", 30, "sudden", 0), 0);
+    assertEquals(Arrays.asList("set_bright 30"), sender.await(1));
+    assertSame(first.get(1, TimeUnit.SECONDS), second.get(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void setSupersedesThePendingAdjustmentOfTheSameProperty() throws Exception {
+    CompletableFuture<CommandResult> set = coalescer.offer(new Command("set_bright", 50, "sudden", 0), 0);
+    CompletableFuture<CommandResult> adjust = coalescer.offer(new Command("adjust_bright", 10, 0), 0);
+    CompletableFuture<CommandResult> last = coalescer.offer(new Command("set_bright", 30, "sudden", 0), 0);
+    assertEquals(Arrays.asList("set_bright 30"), sender.await(1));
+    CommandResult result = last.get(1, TimeUnit.SECONDS);
+    assertSame(result, set.get(1, TimeUnit.SECONDS));
+    assertSame(result, adjust.get(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void adjustmentAfterSetIsSentAfterIt() {
+    coalescer.offer(new Command("set_bright", 50, "sudden", 0), 0);
+    coalescer.offer(new Command("adjust_bright", 10, 0), 0);
+    assertEquals(Arrays.asList("set_bright 50", "adjust_bright 10"), sender.await(2));
+  }
+
+  @Test
+  void colorCommandsSupersedeEachOther() {
+    coalescer.offer(new Command("set_hsv", 120, 50, "sudden", 0), 0);
+    coalescer.offer(new Command("adjust_color", 20, 0), 0);
+    coalescer.offer(new Command("set_rgb", 255, "sudden", 0), 0);
+    assertEquals(Arrays.asList("set_rgb 255"), sender.await(1));
+  }
+
+  @Test
+  void adjustmentsAreSummedAndClamped() {
+    coalescer.offer(new Command("adjust_bright", 10, 0), 0);
+    coalescer.offer(new Command("adjust_bright", 20, 0), 0);
+    coalescer.offer(new Command("adjust_ct", 80, 0), 0);
+    coalescer.offer(new Command("adjust_ct", 50, 0), 0);
+    assertEquals(Arrays.asList("adjust_bright 30", "adjust_ct 100"), sender.await(2));
+  }
+
+  @Test
+  void flushFollowsTheOfferOrderWithinTheQuota() throws Exception {
+    sender.quota = 1;
+    coalescer.offer(new Command("set_bright", 50, "sudden", 0), 0);
+    coalescer.offer(new Command("set_ct_abx", 3000, "sudden", 0), 0);
+    coalescer.offer(new Command("set_rgb", 255, "sudden", 0), 0);
+    coalescer.offer(new Command("set_bright", 60, "sudden", 0), 0);
+    assertEquals(Arrays.asList("set_ct_abx 3000"), sender.await(1));
+    Thread.sleep(WINDOW * 3);
+    assertEquals(1, sender.sent().size(), "sent without quota");
+    assertEquals(2, coalescer.getPending());
+    sender.quota = 2;
+    assertEquals(Arrays.asList("set_ct_abx 3000", "set_rgb 255", "set_bright 60"), sender.await(3));
+    assertFalse(coalescer.getPending() > 0);
+  }
+
+  /**
+   * Answers every command right away, taking a quota token for it
+   */
+  private static final class RecordingSender implements CommandCoalescer.Sender {
+    private final List<String> sent = new ArrayList<>();
+    private volatile int quota = Integer.MAX_VALUE;
+    private int id = 0;
+
+    @Override
+    public synchronized CompletableFuture<CommandResult> send(Command command, long timeout) {
+      sent.add(command.getMethod() + " " + command.getParams()[0]);
+      quota--;
+      notifyAll();
+      CommandResult result = new CommandResult();
+      result.setOk(true);
+      return CompletableFuture.completedFuture(result);
+    }
+
+    @Override
+    public int getRemainingQuota() {
+      return quota;
+    }
+
+    @Override
+    public synchronized int nextId() {
+      return ++id;
+    }
+
+    synchronized List<String> sent() {
+      return new ArrayList<>(sent);
+    }
+
+    synchronized List<String> await(int count) {
+      long deadline = System.currentTimeMillis() + 1000;
+      while(sent.size() < count && System.currentTimeMillis() < deadline) {
+        try {
+          wait(50);
+        } catch(InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      return new ArrayList<>(sent);
+    }
+  }
+}
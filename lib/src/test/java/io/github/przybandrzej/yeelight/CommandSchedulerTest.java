@@ -0,0 +1,119 @@
+package io.github.przybandrzej.yeelight;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CommandSchedulerTest {
+
+  private ConnectionEngine engine;
+  private RecordingTransmitter transmitter;
+  private CommandScheduler scheduler;
+
+  @BeforeEach
+  void start() throws IOException {
+    engine = new ConnectionEngine(1);
+    transmitter = new RecordingTransmitter();
+    // the quotas are lifted, only the connection state holds the commands back
+    scheduler = new CommandScheduler(new TokenBucket(100, 0), new TokenBucket(100, 0), engine, 10, transmitter);
+  }
+
+  @AfterEach
+  void stop() {
+    engine.close();
+  }
+
+  @Test
+  void pauseFailsTheQueuedCommandsOverTheLimit() throws Exception {
+    scheduler.setMaxReplayed(1);
+    IOException cause = new IOException("lost");
+    scheduler.pause(cause);
+    CompletableFuture<CommandResult> kept = submit(1);
+    CompletableFuture<CommandResult> dropped = submit(2);
+    assertSame(cause, failure(dropped));
+
+    scheduler.setMaxReplayed(0);
+    scheduler.pause(cause);
+
+    assertSame(cause, failure(kept));
+    assertEquals(0, scheduler.getQueued());
+  }
+
+  @Test
+  void failedWriteIsReplayedOnceTheConnectionIsBack() throws Exception {
+    scheduler.setMaxReplayed(5);
+    transmitter.failing = true;
+    CompletableFuture<CommandResult> first = submit(1);
+    CompletableFuture<CommandResult> second = submit(2);
+
+    assertFalse(first.isDone());
+    assertFalse(second.isDone());
+    assertEquals(2, scheduler.getQueued());
+
+    transmitter.failing = false;
+    scheduler.resume();
+
+    assertEquals(Arrays.asList(1, 2), transmitter.await(2));
+  }
+
+  @Test
+  void failedWriteFailsTheCommandWithoutReconnect() {
+    transmitter.failing = true;
+    assertThrows(IOException.class, () -> submit(1));
+    assertEquals(0, scheduler.getQueued());
+  }
+
+  private CompletableFuture<CommandResult> submit(int id) throws IOException {
+    Command command = new Command("set_bright", 50, "sudden", 0);
+    command.setId(id);
+    CompletableFuture<CommandResult> future = new CompletableFuture<>();
+    scheduler.submit(command, future, 0);
+    return future;
+  }
+
+  private static Throwable failure(CompletableFuture<CommandResult> future) {
+    assertTrue(future.isCompletedExceptionally());
+    try {
+      future.join();
+      return null;
+    } catch(RuntimeException e) {
+      return e.getCause();
+    }
+  }
+
+  private static final class RecordingTransmitter implements CommandScheduler.Transmitter {
+    private final List<Integer> written = new ArrayList<>();
+    private volatile boolean failing = false;
+
+    @Override
+    public synchronized void transmit(Command command, CompletableFuture<CommandResult> future, long timeout)
+        throws IOException {
+      if(failing) {
+        throw new IOException("Connection closed");
+      }
+      written.add(command.getId());
+      notifyAll();
+    }
+
+    synchronized List<Integer> await(int count) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(1);
+      while(written.size() < count && System.currentTimeMillis() < deadline) {
+        wait(50);
+      }
+      return new ArrayList<>(written);
+    }
+  }
+}
@@ -0,0 +1,247 @@
+package io.github.przybandrzej.yeelight;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventPublisherTest {
+
+  private final ExecutorService pool = Executors.newCachedThreadPool();
+
+  @AfterEach
+  void shutdown() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  void dropOldestKeepsTheNewestEvents() {
+    EventPublisher<Integer> publisher = publisher(2, OverflowPolicy.DROP_OLDEST, Runnable::run);
+    Recorder recorder = subscribe(publisher);
+    publish(publisher, 1, 2, 3, 4);
+    recorder.subscription.request(10);
+    assertEquals(Arrays.asList(3, 4), recorder.events());
+  }
+
+  @Test
+  void conflateKeepsTheLatestEventOfEachKind() {
+    EventPublisher<Integer> publisher = new EventPublisher<>(2, OverflowPolicy.CONFLATE, event -> event % 10,
+        Runnable::run);
+    Recorder recorder = subscribe(publisher);
+    publish(publisher, 11, 12, 21, 32);
+    recorder.subscription.request(10);
+    assertEquals(Arrays.asList(21, 32), recorder.events());
+  }
+
+  @Test
+  void conflateDropsTheOldestKindWhenFull() {
+    EventPublisher<Integer> publisher = new EventPublisher<>(2, OverflowPolicy.CONFLATE, event -> event % 10,
+        Runnable::run);
+    Recorder recorder = subscribe(publisher);
+    publish(publisher, 11, 12, 13);
+    recorder.subscription.request(10);
+    assertEquals(Arrays.asList(12, 13), recorder.events());
+  }
+
+  @Test
+  void blockWaitsForRoomWithoutBlockingThePublishingThread() throws Exception {
+    EventPublisher<Integer> publisher = publisher(2, OverflowPolicy.BLOCK, pool);
+    Recorder recorder = subscribe(publisher);
+    CompletableFuture<Void> publishing = CompletableFuture.runAsync(() -> publish(publisher, 1, 2, 3, 4));
+    publishing.get(1, TimeUnit.SECONDS);
+    for(int i = 1; i <= 4; i++) {
+      recorder.subscription.request(1);
+      recorder.await(i);
+    }
+    assertEquals(Arrays.asList(1, 2, 3, 4), recorder.events());
+    assertNull(recorder.error);
+  }
+
+  @Test
+  void blockFailsTheStalledSubscriberOnceTheHandOffIsFull() throws Exception {
+    EventPublisher<Integer> publisher = publisher(2, OverflowPolicy.BLOCK, pool);
+    Recorder stalled = subscribe(publisher);
+    Recorder healthy = subscribe(publisher);
+    healthy.subscription.request(Long.MAX_VALUE);
+    publish(publisher, 1);
+    healthy.await(1);
+    publish(publisher, 2);
+    healthy.await(2);
+    // the stalled buffer is full: 3 and 4 wait in the hand-off, 5 finds it full
+    publish(publisher, 3, 4, 5);
+    healthy.await(5);
+    assertEquals(Arrays.asList(1, 2, 3, 4, 5), healthy.events());
+    stalled.awaitTermination();
+    assertTrue(stalled.error instanceof IllegalStateException);
+    assertEquals(0, stalled.events().size());
+  }
+
+  @Test
+  void blockStopsWaitingForRoomOnceTerminated() throws Exception {
+    EventPublisher<Integer> publisher = publisher(1, OverflowPolicy.BLOCK, pool);
+    Recorder recorder = subscribe(publisher);
+    publish(publisher, 1, 2);
+    publisher.terminate(null);
+    ThreadPoolExecutor threads = (ThreadPoolExecutor) pool;
+    long deadline = System.currentTimeMillis() + 1000;
+    while(threads.getActiveCount() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, threads.getActiveCount(), "threads still waiting");
+    recorder.subscription.request(10);
+    recorder.awaitTermination();
+    assertEquals(Arrays.asList(1), recorder.events());
+    assertTrue(recorder.completed);
+  }
+
+  @Test
+  void deliversOnlyWhatWasRequested() {
+    EventPublisher<Integer> publisher = publisher(10, OverflowPolicy.DROP_OLDEST, Runnable::run);
+    Recorder recorder = subscribe(publisher);
+    publish(publisher, 1, 2, 3, 4, 5);
+    assertEquals(0, recorder.events().size());
+    recorder.subscription.request(2);
+    assertEquals(Arrays.asList(1, 2), recorder.events());
+    recorder.subscription.request(Long.MAX_VALUE);
+    recorder.subscription.request(Long.MAX_VALUE);
+    publish(publisher, 6);
+    assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6), recorder.events());
+  }
+
+  @Test
+  void nonPositiveRequestSignalsAnError() {
+    EventPublisher<Integer> publisher = publisher(10, OverflowPolicy.DROP_OLDEST, Runnable::run);
+    Recorder recorder = subscribe(publisher);
+    publish(publisher, 1);
+    recorder.subscription.request(0);
+    assertTrue(recorder.error instanceof IllegalArgumentException);
+    assertEquals(0, recorder.events().size());
+    publish(publisher, 2);
+    recorder.subscription.request(1);
+    assertEquals(0, recorder.events().size());
+  }
+
+  @Test
+  void cancelStopsTheEventsAndTheTerminalSignal() {
+    EventPublisher<Integer> publisher = publisher(10, OverflowPolicy.DROP_OLDEST, Runnable::run);
+    Recorder recorder = subscribe(publisher);
+    recorder.subscription.request(10);
+    publish(publisher, 1);
+    recorder.subscription.cancel();
+    publish(publisher, 2);
+    publisher.terminate(null);
+    assertEquals(Arrays.asList(1), recorder.events());
+    assertFalse(recorder.completed);
+    assertNull(recorder.error);
+  }
+
+  @Test
+  void completesAfterTheBufferedEvents() {
+    EventPublisher<Integer> publisher = publisher(10, OverflowPolicy.DROP_OLDEST, Runnable::run);
+    Recorder recorder = subscribe(publisher);
+    publish(publisher, 1, 2);
+    publisher.terminate(null);
+    assertFalse(recorder.completed);
+    recorder.subscription.request(2);
+    assertEquals(Arrays.asList(1, 2), recorder.events());
+    assertTrue(recorder.completed);
+  }
+
+  @Test
+  void failsRightAwayDroppingTheBufferedEvents() {
+    EventPublisher<Integer> publisher = publisher(10, OverflowPolicy.DROP_OLDEST, Runnable::run);
+    Recorder recorder = subscribe(publisher);
+    publish(publisher, 1, 2);
+    IllegalStateException cause = new IllegalStateException();
+    publisher.terminate(cause);
+    assertEquals(cause, recorder.error);
+    assertEquals(0, recorder.events().size());
+  }
+
+  @Test
+  void lateSubscriberIsTerminatedRightAway() {
+    EventPublisher<Integer> publisher = publisher(10, OverflowPolicy.DROP_OLDEST, Runnable::run);
+    publisher.terminate(null);
+    Recorder recorder = subscribe(publisher);
+    assertTrue(recorder.completed);
+  }
+
+  private static EventPublisher<Integer> publisher(int bufferSize, OverflowPolicy policy, Executor delivery) {
+    return new EventPublisher<>(bufferSize, policy, event -> event, delivery);
+  }
+
+  private static Recorder subscribe(EventPublisher<Integer> publisher) {
+    Recorder recorder = new Recorder();
+    publisher.subscribe(recorder);
+    return recorder;
+  }
+
+  private static void publish(EventPublisher<Integer> publisher, int... events) {
+    for(int event : events) {
+      publisher.publish(event);
+    }
+  }
+
+  private static final class Recorder implements Subscriber<Integer> {
+    private final List<Integer> events = new ArrayList<>();
+    private volatile Subscription subscription;
+    private volatile Throwable error;
+    private volatile boolean completed;
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public synchronized void onNext(Integer event) {
+      events.add(event);
+      notifyAll();
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      this.error = error;
+    }
+
+    @Override
+    public void onComplete() {
+      completed = true;
+    }
+
+    synchronized List<Integer> events() {
+      return new ArrayList<>(events);
+    }
+
+    synchronized void awaitTermination() throws InterruptedException {
+      long deadline = System.currentTimeMillis() + 1000;
+      while(error == null && !completed && System.currentTimeMillis() < deadline) {
+        wait(50);
+      }
+      assertTrue(error != null || completed, "terminated");
+    }
+
+    synchronized void await(int count) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + 1000;
+      while(events.size() < count && System.currentTimeMillis() < deadline) {
+        wait(50);
+      }
+      assertEquals(count, events.size(), "events received");
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package io.github.przybandrzej.yeelight;
+
+import io.github.przybandrzej.yeelight.simulator.DeviceSimulator;
+import io.github.przybandrzej.yeelight.simulator.SimulatedDevice;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the client against an in-process {@link DeviceSimulator}
+ */
+class SimulatorIntegrationTest {
+
+  private static final long TIMEOUT = 2;
+
+  private ConnectionEngine engine;
+  private DeviceSimulator simulator;
+
+  @BeforeEach
+  void start() throws IOException {
+    engine = new ConnectionEngine(1);
+  }
+
+  @AfterEach
+  void stop() {
+    engine.close();
+    if(simulator != null) {
+      simulator.close();
+    }
+  }
+
+  @Test
+  void commandRoundTrip() throws Exception {
+    simulator = DeviceSimulator.builder().withoutSsdp().start();
+    SimulatedDevice simulated = simulator.getDevices().get(0);
+    DeviceControl control = connect(simulated);
+
+    CommandResult result = control.setBrightnessAsync(42).get(TIMEOUT, TimeUnit.SECONDS);
+
+    assertTrue(result.getOk());
+    // the device answers before applying the change, a second round trip is ordered after it
+    Device fetched = control.fetchPropertiesAsync(DeviceProperty.BRIGHT, DeviceProperty.POWER)
+        .get(TIMEOUT, TimeUnit.SECONDS);
+    assertEquals(42, fetched.getBrightness());
+    assertTrue(fetched.isPower());
+    assertEquals(42, simulated.getProperty("bright"));
+  }
+
+  @Test
+  void commandsOverTheDeviceQuotaAreRejected() throws Exception {
+    // tighter than the client's own pacing, so the simulator is the one refusing
+    simulator = DeviceSimulator.builder().withoutSsdp().quota(3, 0, 1, TimeUnit.MINUTES).start();
+    SimulatedDevice simulated = simulator.getDevices().get(0);
+    DeviceControl control = connect(simulated);
+
+    List<CompletableFuture<CommandResult>> futures = new ArrayList<>();
+    for(int i = 1; i <= 5; i++) {
+      futures.add(control.setBrightnessAsync(10 * i));
+    }
+    int accepted = 0;
+    int rejected = 0;
+    for(CompletableFuture<CommandResult> future : futures) {
+      CommandResult result = future.get(TIMEOUT, TimeUnit.SECONDS);
+      if(result.getError() != null) {
+        assertEquals("client quota exceeded", result.getError().getMessage());
+        rejected++;
+      } else if(result.getOk()) {
+        accepted++;
+      }
+    }
+
+    assertEquals(3, accepted);
+    assertEquals(2, rejected);
+    assertEquals(2, simulated.getRejectedCommands());
+  }
+
+  @Test
+  void propsNotificationUpdatesTheDevice() throws Exception {
+    simulator = DeviceSimulator.builder().withoutSsdp().start();
+    SimulatedDevice simulated = simulator.getDevices().get(0);
+    DeviceControl control = connect(simulated);
+    // a round trip makes sure the simulator has accepted the connection before the change
+    control.setBrightnessAsync(50).get(TIMEOUT, TimeUnit.SECONDS);
+    CountDownLatch changed = new CountDownLatch(1);
+    control.getStateStore().subscribe(DeviceProperty.POWER, Boolean.class, change -> {
+      if(!change.getNewValue()) {
+        changed.countDown();
+      }
+    });
+
+    simulated.setProperty("power", "off");
+
+    assertTrue(changed.await(TIMEOUT, TimeUnit.SECONDS), "no notification");
+    assertFalse(control.getDevice().isPower());
+    assertFalse(control.getStateStore().getState().isPower());
+    assertEquals(50, control.getStateStore().getState().getBrightness());
+  }
+
+  @Test
+  void closingTheEngineEndsAReconnectingControl() throws Exception {
+    simulator = DeviceSimulator.builder().withoutSsdp().start();
+    DeviceControl control = connect(simulator.getDevices().get(0));
+    control.autoReconnect(ReconnectPolicy.defaults());
+    control.setBrightnessAsync(50).get(TIMEOUT, TimeUnit.SECONDS);
+    CountDownLatch ended = new CountDownLatch(1);
+    control.notifications(16, OverflowPolicy.DROP_OLDEST).subscribe(new Subscriber<PropertyChange<?>>() {
+      @Override
+      public void onSubscribe(Subscription subscription) {
+      }
+
+      @Override
+      public void onNext(PropertyChange<?> change) {
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+        ended.countDown();
+      }
+
+      @Override
+      public void onComplete() {
+        ended.countDown();
+      }
+    });
+
+    engine.close();
+
+    assertTrue(ended.await(TIMEOUT, TimeUnit.SECONDS), "the connection is still waiting to reconnect");
+
+    // the control gives up instead of queueing the command for a reconnect that never comes
+    assertThrows(IOException.class, () -> control.setBrightnessAsync(60));
+  }
+
+  /**
+   * Connect to a simulated device, with the values a search response would have told
+   */
+  private DeviceControl connect(SimulatedDevice simulated) throws IOException {
+    Device device = new Device();
+    device.setPower("on".equals(simulated.getProperty("power")));
+    device.setBrightness((Integer) simulated.getProperty("bright"));
+    device.setId(simulated.getId());
+    device.setLocation(simulated.getLocation());
+    device.setModel(Model.find(simulated.getModel()));
+    device.setSupport(simulated.getSupport().toArray(new String[0]));
+    return new DeviceControl(device, engine);
+  }
+}
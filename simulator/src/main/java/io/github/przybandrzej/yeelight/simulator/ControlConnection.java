@@ -0,0 +1,175 @@
+package io.github.przybandrzej.yeelight.simulator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Line-delimited connection of a simulated device: a control connection accepted on the device port, or the
+ * connection the device opens to a music server. Only used from the loop of the device.
+ */
+final class ControlConnection implements SimulatorLoop.Handler {
+
+  private static final int READ_BUFFER_SIZE = 4096;
+  private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+  private final SimulatedDevice device;
+  private final SocketChannel channel;
+  private final Quota quota;
+  private final boolean music;
+  private final Queue<ByteBuffer> writeQueue = new ArrayDeque<>();
+  private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+  private SelectionKey key;
+  private boolean closed = false;
+
+  /**
+   * @param quota Quota of the connection, null for none
+   * @param music Whether this is a music mode connection: no quota and no responses
+   */
+  ControlConnection(SimulatedDevice device, SocketChannel channel, Quota quota, boolean music) {
+    this.device = device;
+    this.channel = channel;
+    this.quota = quota;
+    this.music = music;
+  }
+
+  boolean isMusic() {
+    return music;
+  }
+
+  /**
+   * @return Quota of the connection, null for none
+   */
+  Quota getQuota() {
+    return quota;
+  }
+
+  void register(SimulatorLoop loop) throws IOException {
+    channel.configureBlocking(false);
+    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    key = loop.register(channel, SelectionKey.OP_READ, this);
+  }
+
+  /**
+   * Connect to a music server, the key is switched to reading once connected
+   */
+  void connect(SimulatorLoop loop, InetSocketAddress local, InetSocketAddress remote) throws IOException {
+    channel.configureBlocking(false);
+    if(local != null) {
+      channel.bind(local);
+    }
+    if(channel.connect(remote)) {
+      key = loop.register(channel, SelectionKey.OP_READ, this);
+    } else {
+      key = loop.register(channel, SelectionKey.OP_CONNECT, this);
+    }
+  }
+
+  void send(byte[] data) {
+    if(closed) {
+      return;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    if(writeQueue.isEmpty()) {
+      try {
+        channel.write(buffer);
+      } catch(IOException e) {
+        close();
+        return;
+      }
+      if(!buffer.hasRemaining()) {
+        return;
+      }
+    }
+    writeQueue.add(buffer);
+    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+  }
+
+  @Override
+  public void handle(SelectionKey key) {
+    try {
+      if(key.isConnectable()) {
+        channel.finishConnect();
+        key.interestOps(SelectionKey.OP_READ);
+        return;
+      }
+      if(key.isReadable()) {
+        read();
+      }
+      if(key.isValid() && key.isWritable()) {
+        write();
+      }
+    } catch(IOException e) {
+      close();
+    }
+  }
+
+  @Override
+  public void close() {
+    if(closed) {
+      return;
+    }
+    closed = true;
+    if(key != null) {
+      key.cancel();
+    }
+    try {
+      channel.close();
+    } catch(IOException ignored) {
+    }
+    device.closed(this);
+  }
+
+  private void read() throws IOException {
+    if(channel.read(readBuffer) < 0) {
+      close();
+      return;
+    }
+    readBuffer.flip();
+    byte[] array = readBuffer.array();
+    int start = readBuffer.position();
+    int limit = readBuffer.limit();
+    for(int i = start; i < limit && !closed; i++) {
+      if(array[i] != '\n') {
+        continue;
+      }
+      int end = i > start && array[i - 1] == '\r' ? i - 1 : i;
+      if(end > start) {
+        device.received(this, array, start, end - start);
+      }
+      start = i + 1;
+    }
+    if(closed) {
+      return;
+    }
+    readBuffer.position(start);
+    readBuffer.compact();
+    if(!readBuffer.hasRemaining()) {
+      if(readBuffer.capacity() >= MAX_LINE_LENGTH) {
+        close();
+        return;
+      }
+      ByteBuffer bigger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+      readBuffer.flip();
+      bigger.put(readBuffer);
+      readBuffer = bigger;
+    }
+  }
+
+  private void write() throws IOException {
+    ByteBuffer buffer;
+    while((buffer = writeQueue.peek()) != null) {
+      channel.write(buffer);
+      if(buffer.hasRemaining()) {
+        return;
+      }
+      writeQueue.poll();
+    }
+    key.interestOps(SelectionKey.OP_READ);
+  }
+}
@@ -0,0 +1,398 @@
+package io.github.przybandrzej.yeelight.simulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Emulates Yeelight devices on this machine, for testing and load testing without physical bulbs: SSDP responses and
+ * advertisements, a line-delimited JSON control port per device, "props" notifications, the per-connection and
+ * per-device quotas and music mode. The devices are driven by a few selector threads, so thousands of them can run in
+ * one process. Latency and packet loss can be simulated.
+ * <pre>{@code
+ * DeviceSimulator simulator = DeviceSimulator.builder()
+ *     .devices(1000)
+ *     .latency(5, 20, TimeUnit.MILLISECONDS)
+ *     .packetLoss(0.01)
+ *     .start();
+ * }</pre>
+ */
+public final class DeviceSimulator implements Closeable {
+
+  static final String SSDP_ADDRESS = "239.255.255.250";
+  static final int SSDP_PORT = 1982;
+
+  private static final List<String> MONO_SUPPORT = Arrays.asList("get_prop", "set_default", "set_power", "toggle",
+      "set_bright", "start_cf", "stop_cf", "set_scene", "cron_add", "cron_get", "cron_del", "set_adjust",
+      "adjust_bright", "set_name");
+  private static final List<String> COLOR_SUPPORT = Arrays.asList("set_ct_abx", "set_rgb", "set_hsv", "adjust_ct",
+      "adjust_color", "set_music");
+  private static final List<String> BACKGROUND_SUPPORT = Arrays.asList("bg_set_power", "bg_toggle", "bg_set_bright",
+      "bg_set_ct_abx", "bg_set_rgb", "bg_set_hsv", "bg_start_cf", "bg_stop_cf", "bg_set_scene", "bg_set_adjust",
+      "bg_adjust_bright", "bg_adjust_ct", "bg_adjust_color", "dev_toggle");
+
+  private final List<SimulatedDevice> devices;
+  private final Map<String, SimulatedDevice> devicesById = new ConcurrentHashMap<>();
+  private final SimulatorLoop[] loops;
+  private final ScheduledExecutorService timer;
+  private final SsdpResponder ssdp;
+  private final Random random;
+  private final long minLatency;
+  private final long latencySpread;
+  private final double packetLoss;
+  private final int connectionQuota;
+  private final int deviceQuota;
+  private final long quotaWindow;
+  private final int maxConnections;
+
+  private DeviceSimulator(Builder builder) throws IOException {
+    this.random = builder.seed == null ? new Random() : new Random(builder.seed);
+    this.minLatency = builder.minLatency;
+    this.latencySpread = builder.maxLatency - builder.minLatency;
+    this.packetLoss = builder.packetLoss;
+    this.connectionQuota = builder.connectionQuota;
+    this.deviceQuota = builder.deviceQuota;
+    this.quotaWindow = builder.quotaWindow;
+    this.maxConnections = builder.maxConnections;
+    this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "yeelight-simulator-timer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.loops = new SimulatorLoop[builder.eventLoops];
+    List<SimulatedDevice> created = new ArrayList<>(builder.devices);
+    SsdpResponder responder = null;
+    try {
+      for(int i = 0; i < loops.length; i++) {
+        loops[i] = new SimulatorLoop("yeelight-simulator-" + i, timer);
+      }
+      Set<String> support = builder.support != null ? builder.support : defaultSupport(builder.model);
+      InetAddress host = InetAddress.getByName(builder.host);
+      for(int i = 0; i < builder.devices; i++) {
+        InetAddress address = builder.addressPerDevice ? loopbackAddress(i) : host;
+        int port = builder.port == 0 ? 0 : builder.addressPerDevice ? builder.port : builder.port + i;
+        SimulatedDevice device = new SimulatedDevice(this, loops[i % loops.length], String.format("0x%016x", i + 1),
+            builder.model, builder.firmwareVersion, support, new InetSocketAddress(address, port));
+        created.add(device);
+        devicesById.put(device.getId(), device);
+      }
+      this.devices = Collections.unmodifiableList(created);
+      if(builder.ssdp) {
+        responder = new SsdpResponder(this, loops[0], devices, new InetSocketAddress(host, builder.ssdpPort),
+            builder.multicast);
+      }
+    } catch(IOException | RuntimeException e) {
+      created.forEach(SimulatedDevice::close);
+      for(SimulatorLoop loop : loops) {
+        if(loop != null) {
+          loop.shutdown();
+        }
+      }
+      timer.shutdownNow();
+      throw e;
+    }
+    this.ssdp = responder;
+    for(SimulatorLoop loop : loops) {
+      loop.start();
+    }
+    devices.forEach(SimulatedDevice::start);
+    if(ssdp != null) {
+      ssdp.start();
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public List<SimulatedDevice> getDevices() {
+    return devices;
+  }
+
+  /**
+   * @param id Device ID, e.g. {@code 0x0000000000000001}
+   * @return Device with the given ID, null if there is none
+   */
+  public SimulatedDevice getDevice(String id) {
+    return devicesById.get(id);
+  }
+
+  /**
+   * @return Port the searches are answered on, -1 if SSDP is disabled
+   * @throws IOException if the port cannot be read
+   */
+  public int getSsdpPort() throws IOException {
+    return ssdp == null ? -1 : ssdp.getPort();
+  }
+
+  /**
+   * Send the advertisement of every device to the SSDP multicast group, as devices do when they are switched on
+   */
+  public void advertise() {
+    if(ssdp != null) {
+      ssdp.advertise();
+    }
+  }
+
+  /**
+   * Stop every device and close all their connections
+   */
+  @Override
+  public void close() {
+    for(SimulatorLoop loop : loops) {
+      loop.shutdown();
+    }
+    timer.shutdownNow();
+  }
+
+  int getMaxConnections() {
+    return maxConnections;
+  }
+
+  Quota newConnectionQuota() {
+    return connectionQuota > 0 ? new Quota(connectionQuota, quotaWindow) : null;
+  }
+
+  Quota newDeviceQuota() {
+    return deviceQuota > 0 ? new Quota(deviceQuota, quotaWindow) : null;
+  }
+
+  /**
+   * @return Whether the next message is lost
+   */
+  boolean isLost() {
+    return packetLoss > 0 && random.nextDouble() < packetLoss;
+  }
+
+  /**
+   * @return Latency of the next response, in nanoseconds
+   */
+  long nextLatency() {
+    return latencySpread > 0 ? minLatency + (long) (random.nextDouble() * latencySpread) : minLatency;
+  }
+
+  private static Set<String> defaultSupport(String model) {
+    Set<String> support = new LinkedHashSet<>(MONO_SUPPORT);
+    if(!model.equals("mono")) {
+      support.addAll(COLOR_SUPPORT);
+    }
+    if(model.equals("ceiling") || model.equals("bslamp")) {
+      support.addAll(BACKGROUND_SUPPORT);
+    }
+    return support;
+  }
+
+  /**
+   * @return 127.1.0.1, 127.1.0.2, ... one per device, so every device has an address of its own like on a real network
+   */
+  private static InetAddress loopbackAddress(int index) throws IOException {
+    int host = index + 1;
+    return InetAddress.getByAddress(new byte[]{127, 1, (byte) (host >> 8), (byte) host});
+  }
+
+  public static final class Builder {
+    private int devices = 1;
+    private String model = "colorb";
+    private int firmwareVersion = 18;
+    private Set<String> support = null;
+    private String host = "127.0.0.1";
+    private int port = 0;
+    private boolean addressPerDevice = false;
+    private boolean ssdp = true;
+    private int ssdpPort = SSDP_PORT;
+    private boolean multicast = true;
+    private long minLatency = 0;
+    private long maxLatency = 0;
+    private double packetLoss = 0;
+    private int connectionQuota = 60;
+    private int deviceQuota = 144;
+    private long quotaWindow = TimeUnit.MINUTES.toNanos(1);
+    private int maxConnections = 4;
+    private int eventLoops = 1;
+    private Long seed = null;
+
+    private Builder() {
+    }
+
+    /**
+     * @param devices Number of simulated devices (&gt;= 1)
+     * @return This builder
+     */
+    public Builder devices(int devices) {
+      if(devices < 1) {
+        throw new IllegalArgumentException("At least one device is required.");
+      }
+      this.devices = devices;
+      return this;
+    }
+
+    /**
+     * @param model Model the devices report, also selects the default support list
+     * @return This builder
+     */
+    public Builder model(String model) {
+      this.model = Objects.requireNonNull(model, "The model cannot be null.");
+      return this;
+    }
+
+    public Builder firmwareVersion(int firmwareVersion) {
+      this.firmwareVersion = firmwareVersion;
+      return this;
+    }
+
+    /**
+     * @param methods Methods the devices support, instead of the default ones of the model
+     * @return This builder
+     */
+    public Builder support(String... methods) {
+      this.support = new LinkedHashSet<>(Arrays.asList(methods));
+      return this;
+    }
+
+    /**
+     * @param host Address the devices and the SSDP responder are bound to
+     * @return This builder
+     */
+    public Builder host(String host) {
+      this.host = Objects.requireNonNull(host, "The host cannot be null.");
+      return this;
+    }
+
+    /**
+     * @param port Control port of the first device, the next devices use the following ports (0 picks free ones)
+     * @return This builder
+     */
+    public Builder port(int port) {
+      this.port = port;
+      return this;
+    }
+
+    /**
+     * Bind every device to an address of its own, 127.1.0.1, 127.1.0.2, ..., all on the same port. Needed to use
+     * music mode with several devices at once, as music servers tell the devices apart by their address. The whole
+     * 127.0.0.0/8 range is routed to the loopback interface on Linux, other systems need the aliases configured.
+     *
+     * @return This builder
+     */
+    public Builder addressPerDevice() {
+      this.addressPerDevice = true;
+      return this;
+    }
+
+    /**
+     * @param ssdpPort  Port the searches are answered on (0 picks a free one)
+     * @param multicast Whether to join the SSDP multicast group, otherwise only searches sent straight to the port
+     *                  are answered
+     * @return This builder
+     */
+    public Builder ssdp(int ssdpPort, boolean multicast) {
+      this.ssdp = true;
+      this.ssdpPort = ssdpPort;
+      this.multicast = multicast;
+      return this;
+    }
+
+    /**
+     * Do not answer searches
+     *
+     * @return This builder
+     */
+    public Builder withoutSsdp() {
+      this.ssdp = false;
+      return this;
+    }
+
+    /**
+     * @param min  Shortest delay of a response
+     * @param max  Longest delay of a response, the delays are spread evenly in between
+     * @param unit Unit of the delays
+     * @return This builder
+     */
+    public Builder latency(long min, long max, TimeUnit unit) {
+      if(min < 0 || max < min) {
+        throw new IllegalArgumentException("The latency range is invalid.");
+      }
+      this.minLatency = unit.toNanos(min);
+      this.maxLatency = unit.toNanos(max);
+      return this;
+    }
+
+    /**
+     * @param packetLoss Probability for a command or a search to be lost, from 0 to 1. A lost command is neither
+     *                   applied nor answered.
+     * @return This builder
+     */
+    public Builder packetLoss(double packetLoss) {
+      if(packetLoss < 0 || packetLoss > 1) {
+        throw new IllegalArgumentException("The packet loss must be between 0 and 1.");
+      }
+      this.packetLoss = packetLoss;
+      return this;
+    }
+
+    /**
+     * @param perConnection Commands accepted per connection within the window, 0 for no limit
+     * @param perDevice     Commands accepted per device within the window, 0 for no limit
+     * @param window        Length of the window
+     * @param unit          Unit of the window
+     * @return This builder
+     */
+    public Builder quota(int perConnection, int perDevice, long window, TimeUnit unit) {
+      if(perConnection < 0 || perDevice < 0 || window <= 0) {
+        throw new IllegalArgumentException("The quota is invalid.");
+      }
+      this.connectionQuota = perConnection;
+      this.deviceQuota = perDevice;
+      this.quotaWindow = unit.toNanos(window);
+      return this;
+    }
+
+    public Builder maxConnections(int maxConnections) {
+      this.maxConnections = maxConnections;
+      return this;
+    }
+
+    /**
+     * @param eventLoops Number of selector threads driving the devices (&gt;= 1)
+     * @return This builder
+     */
+    public Builder eventLoops(int eventLoops) {
+      if(eventLoops < 1) {
+        throw new IllegalArgumentException("At least one event loop is required.");
+      }
+      this.eventLoops = eventLoops;
+      return this;
+    }
+
+    /**
+     * @param seed Seed of the simulated latency and packet loss, for reproducible runs
+     * @return This builder
+     */
+    public Builder seed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    /**
+     * @return Running simulator
+     * @throws IOException if a port cannot be bound
+     */
+    public DeviceSimulator start() throws IOException {
+      return new DeviceSimulator(this);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package io.github.przybandrzej.yeelight.simulator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Builds the lines a device sends: command results, errors and "props" notifications
+ */
+final class Json {
+
+  /**
+   * Raw JSON written as is, e.g. the object of a "cron_get" result
+   */
+  private static final class Raw {
+    private final String json;
+
+    private Raw(String json) {
+      this.json = json;
+    }
+  }
+
+  private Json() {
+  }
+
+  static byte[] result(int id, Object[] values) {
+    StringBuilder builder = new StringBuilder(64).append("{\"id\":").append(id).append(",\"result\":[");
+    for(int i = 0; i < values.length; i++) {
+      if(i > 0) {
+        builder.append(',');
+      }
+      value(builder, values[i]);
+    }
+    return line(builder.append("]}"));
+  }
+
+  static byte[] error(int id, String message) {
+    StringBuilder builder = new StringBuilder(64).append("{\"id\":").append(id)
+        .append(",\"error\":{\"code\":-1,\"message\":");
+    value(builder, message);
+    return line(builder.append("}}"));
+  }
+
+  static byte[] notification(Map<String, Object> changes) {
+    StringBuilder builder = new StringBuilder(64).append("{\"method\":\"props\",\"params\":{");
+    boolean first = true;
+    for(Map.Entry<String, Object> change : changes.entrySet()) {
+      if(!first) {
+        builder.append(',');
+      }
+      first = false;
+      value(builder, change.getKey());
+      builder.append(':');
+      value(builder, change.getValue());
+    }
+    return line(builder.append("}}"));
+  }
+
+  static Object cron(int delay) {
+    return new Raw("{\"type\":0,\"delay\":" + delay + ",\"mix\":0}");
+  }
+
+  private static void value(StringBuilder builder, Object value) {
+    if(value instanceof Raw) {
+      builder.append(((Raw) value).json);
+    } else if(value instanceof Number || value instanceof Boolean) {
+      builder.append(value);
+    } else {
+      String string = String.valueOf(value);
+      builder.append('"');
+      for(int i = 0; i < string.length(); i++) {
+        char c = string.charAt(i);
+        if(c == '"' || c == '\\') {
+          builder.append('\\').append(c);
+        } else if(c < ' ') {
+          builder.append(String.format("\\u%04x", (int) c));
+        } else {
+          builder.append(c);
+        }
+      }
+      builder.append('"');
+    }
+  }
+
+  private static byte[] line(StringBuilder builder) {
+    return builder.append("\r\n").toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,30 @@
+package io.github.przybandrzej.yeelight.simulator;
+
+/**
+ * Command quota counted the way the devices do it: a command uses one token, returned one window after it was taken
+ */
+final class Quota {
+
+  private final long[] spent;
+  private final long window;
+  private int head = 0;
+  private int size = 0;
+
+  Quota(int capacity, long window) {
+    this.spent = new long[capacity];
+    this.window = window;
+  }
+
+  boolean tryAcquire(long now) {
+    while(size > 0 && now - spent[head] >= window) {
+      head = (head + 1) % spent.length;
+      size--;
+    }
+    if(size == spent.length) {
+      return false;
+    }
+    spent[(head + size) % spent.length] = now;
+    size++;
+    return true;
+  }
+}
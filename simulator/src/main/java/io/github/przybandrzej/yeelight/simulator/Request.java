@@ -0,0 +1,204 @@
+package io.github.przybandrzej.yeelight.simulator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command received by a simulated device: {@code {"id":1,"method":"set_bright","params":[50,"smooth",500]}}.
+ * Parameters are decoded to {@link Integer}s, {@link String}s and {@link Boolean}s.
+ */
+final class Request {
+
+  private final int id;
+  private final String method;
+  private final Object[] params;
+
+  private Request(int id, String method, Object[] params) {
+    this.id = id;
+    this.method = method;
+    this.params = params;
+  }
+
+  int getId() {
+    return id;
+  }
+
+  String getMethod() {
+    return method;
+  }
+
+  Object[] getParams() {
+    return params;
+  }
+
+  /**
+   * @return Decoded request, null if the line is not a valid command
+   */
+  static Request parse(byte[] data, int offset, int length) {
+    Parser parser = new Parser(data, offset, offset + length);
+    try {
+      return parser.request();
+    } catch(IllegalArgumentException | IndexOutOfBoundsException | ClassCastException | NullPointerException e) {
+      return null;
+    }
+  }
+
+  private static final class Parser {
+    private final byte[] data;
+    private final int end;
+    private int pos;
+
+    private Parser(byte[] data, int offset, int end) {
+      this.data = data;
+      this.pos = offset;
+      this.end = end;
+    }
+
+    private Request request() {
+      int id = -1;
+      String method = null;
+      Object[] params = new Object[0];
+      expect('{');
+      if(!consume('}')) {
+        do {
+          String key = string();
+          expect(':');
+          switch(key) {
+            case "id":
+              id = ((Number) value()).intValue();
+              break;
+            case "method":
+              method = string();
+              break;
+            case "params":
+              params = array();
+              break;
+            default:
+              value();
+          }
+        } while(consume(','));
+        expect('}');
+      }
+      if(id < 0 || method == null) {
+        throw new IllegalArgumentException();
+      }
+      return new Request(id, method, params);
+    }
+
+    private Object[] array() {
+      List<Object> values = new ArrayList<>();
+      expect('[');
+      if(!consume(']')) {
+        do {
+          values.add(value());
+        } while(consume(','));
+        expect(']');
+      }
+      return values.toArray();
+    }
+
+    private Object value() {
+      skipWhitespace();
+      byte next = at(pos);
+      if(next == '"') {
+        return string();
+      } else if(next == '[') {
+        return array();
+      } else if(next == '{') {
+        skipObject();
+        return null;
+      }
+      int start = pos;
+      while(pos < end && data[pos] != ',' && data[pos] != ']' && data[pos] != '}' && data[pos] > ' ') {
+        pos++;
+      }
+      String literal = new String(data, start, pos - start, StandardCharsets.US_ASCII);
+      switch(literal) {
+        case "true":
+          return Boolean.TRUE;
+        case "false":
+          return Boolean.FALSE;
+        case "null":
+          return null;
+        default:
+          try {
+            return (int) Double.parseDouble(literal);
+          } catch(NumberFormatException e) {
+            throw new IllegalArgumentException(e);
+          }
+      }
+    }
+
+    private String string() {
+      skipWhitespace();
+      if(at(pos) != '"') {
+        throw new IllegalArgumentException();
+      }
+      StringBuilder builder = new StringBuilder();
+      pos++;
+      while(at(pos) != '"') {
+        if(at(pos) == '\\') {
+          pos++;
+          char escape = (char) at(pos);
+          if(escape == 'u') {
+            at(pos + 4);
+            builder.append((char) Integer.parseInt(new String(data, pos + 1, 4, StandardCharsets.US_ASCII), 16));
+            pos += 4;
+          } else {
+            builder.append(escape == 'n' ? '\n' : escape == 't' ? '\t' : escape == 'r' ? '\r' : escape);
+          }
+          pos++;
+          continue;
+        }
+        int start = pos;
+        while(at(pos) != '"' && at(pos) != '\\') {
+          pos++;
+        }
+        builder.append(new String(data, start, pos - start, StandardCharsets.UTF_8));
+      }
+      pos++;
+      return builder.toString();
+    }
+
+    private void skipObject() {
+      expect('{');
+      if(!consume('}')) {
+        do {
+          string();
+          expect(':');
+          value();
+        } while(consume(','));
+        expect('}');
+      }
+    }
+
+    private byte at(int i) {
+      if(i >= end) {
+        throw new IndexOutOfBoundsException();
+      }
+      return data[i];
+    }
+
+    private void skipWhitespace() {
+      while(pos < end && data[pos] <= ' ') {
+        pos++;
+      }
+    }
+
+    private boolean consume(char c) {
+      skipWhitespace();
+      if(pos < end && data[pos] == c) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(char c) {
+      if(!consume(c)) {
+        throw new IllegalArgumentException();
+      }
+    }
+  }
+}
@@ -0,0 +1,543 @@
+package io.github.przybandrzej.yeelight.simulator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One virtual bulb of a {@link DeviceSimulator}. It listens on its own port, answers the commands of its support
+ * list, sends "props" notifications to every control connection when its state changes and connects back to the
+ * music server on "set_music".
+ * <p>
+ * The state is kept as the property values the device reports: numbers as {@link Integer}s, everything else as
+ * {@link String}s. Commands run on the loop the device is pinned to, the getters can be called from any thread.
+ */
+public final class SimulatedDevice implements SimulatorLoop.Handler {
+
+  private static final String QUOTA_EXCEEDED = "client quota exceeded";
+  private static final String NOT_SUPPORTED = "method not supported";
+  private static final String INVALID_PARAMS = "invalid params";
+
+  /**
+   * Thrown by a command handler when the parameters are invalid
+   */
+  private static final class InvalidParamsException extends Exception {
+  }
+
+  private final DeviceSimulator simulator;
+  private final SimulatorLoop loop;
+  private final String id;
+  private final String model;
+  private final int firmwareVersion;
+  private final Set<String> support;
+  private final ServerSocketChannel serverChannel;
+  private final InetSocketAddress address;
+  private final Map<String, Object> properties = new ConcurrentHashMap<>();
+  private final List<ControlConnection> connections = new ArrayList<>();
+  private final Quota quota;
+  private final AtomicLong received = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private volatile int connectionCount = 0;
+  private ControlConnection musicConnection;
+
+  SimulatedDevice(DeviceSimulator simulator, SimulatorLoop loop, String id, String model, int firmwareVersion,
+                  Set<String> support, InetSocketAddress bindAddress) throws IOException {
+    this.simulator = simulator;
+    this.loop = loop;
+    this.id = id;
+    this.model = model;
+    this.firmwareVersion = firmwareVersion;
+    this.support = Collections.unmodifiableSet(new LinkedHashSet<>(support));
+    this.quota = simulator.newDeviceQuota();
+    this.serverChannel = ServerSocketChannel.open();
+    try {
+      serverChannel.bind(bindAddress);
+      serverChannel.configureBlocking(false);
+    } catch(IOException e) {
+      serverChannel.close();
+      throw e;
+    }
+    this.address = (InetSocketAddress) serverChannel.getLocalAddress();
+    properties.put("power", "on");
+    properties.put("bright", 100);
+    properties.put("ct", 4000);
+    properties.put("rgb", 16777215);
+    properties.put("hue", 0);
+    properties.put("sat", 0);
+    properties.put("color_mode", 2);
+    properties.put("flowing", 0);
+    properties.put("delayoff", 0);
+    properties.put("flow_params", "");
+    properties.put("music_on", 0);
+    properties.put("name", "");
+    if(support.stream().anyMatch(method -> method.startsWith("bg_"))) {
+      properties.put("bg_power", "off");
+      properties.put("bg_bright", 100);
+      properties.put("bg_ct", 4000);
+      properties.put("bg_rgb", 16777215);
+      properties.put("bg_hue", 0);
+      properties.put("bg_sat", 0);
+      properties.put("bg_lmode", 2);
+      properties.put("bg_flowing", 0);
+      properties.put("bg_flow_params", "");
+    }
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getModel() {
+    return model;
+  }
+
+  public int getFirmwareVersion() {
+    return firmwareVersion;
+  }
+
+  public Set<String> getSupport() {
+    return support;
+  }
+
+  public InetSocketAddress getAddress() {
+    return address;
+  }
+
+  /**
+   * @return Location the device advertises, e.g. {@code yeelight://127.0.0.1:55443}
+   */
+  public String getLocation() {
+    return "yeelight://" + address.getAddress().getHostAddress() + ":" + address.getPort();
+  }
+
+  /**
+   * @param name Property name, as in "get_prop"
+   * @return Current value, null if the device does not have the property
+   */
+  public Object getProperty(String name) {
+    return properties.get(name);
+  }
+
+  /**
+   * Change a property the way a wall switch or the Yeelight app does, the control connections are notified
+   *
+   * @param name  Property name, as in "get_prop"
+   * @param value New value, an {@link Integer} or a {@link String}
+   */
+  public void setProperty(String name, Object value) {
+    loop.execute(() -> {
+      Map<String, Object> changes = new LinkedHashMap<>();
+      changes.put(name, value);
+      apply(changes);
+    });
+  }
+
+  public boolean isMusicMode() {
+    return Integer.valueOf(1).equals(properties.get("music_on"));
+  }
+
+  /**
+   * @return Number of open control connections, at most the connection limit of the simulator
+   */
+  public int getConnections() {
+    return connectionCount;
+  }
+
+  /**
+   * @return Number of commands received, including the rejected and dropped ones
+   */
+  public long getReceivedCommands() {
+    return received.get();
+  }
+
+  /**
+   * @return Number of commands rejected because a quota was exceeded
+   */
+  public long getRejectedCommands() {
+    return rejected.get();
+  }
+
+  /**
+   * @return Number of commands lost to the simulated packet loss
+   */
+  public long getDroppedCommands() {
+    return dropped.get();
+  }
+
+  void start() {
+    loop.execute(() -> {
+      try {
+        loop.register(serverChannel, SelectionKey.OP_ACCEPT, this);
+      } catch(IOException e) {
+        close();
+      }
+    });
+  }
+
+  /**
+   * Accept a control connection
+   */
+  @Override
+  public void handle(SelectionKey key) {
+    SocketChannel channel;
+    try {
+      channel = serverChannel.accept();
+    } catch(IOException e) {
+      return;
+    }
+    if(channel == null) {
+      return;
+    }
+    ControlConnection connection = new ControlConnection(this, channel, simulator.newConnectionQuota(), false);
+    if(connections.size() >= simulator.getMaxConnections()) {
+      connection.close();
+      return;
+    }
+    try {
+      connection.register(loop);
+    } catch(IOException e) {
+      connection.close();
+      return;
+    }
+    connections.add(connection);
+    connectionCount = connections.size();
+  }
+
+  @Override
+  public void close() {
+    try {
+      serverChannel.close();
+    } catch(IOException ignored) {
+    }
+    for(ControlConnection connection : new ArrayList<>(connections)) {
+      connection.close();
+    }
+    if(musicConnection != null) {
+      musicConnection.close();
+    }
+  }
+
+  /**
+   * @param notify Whether to build an advertisement instead of a search response
+   * @return SSDP message describing the device
+   */
+  byte[] ssdpMessage(boolean notify) {
+    StringBuilder message = new StringBuilder(512);
+    if(notify) {
+      message.append("NOTIFY * HTTP/1.1\r\n")
+          .append("Host: ").append(DeviceSimulator.SSDP_ADDRESS).append(':').append(DeviceSimulator.SSDP_PORT)
+          .append("\r\n")
+          .append("Cache-Control: max-age=3600\r\n")
+          .append("Location: ").append(getLocation()).append("\r\n")
+          .append("NTS: ssdp:alive\r\n");
+    } else {
+      message.append("HTTP/1.1 200 OK\r\n")
+          .append("Cache-Control: max-age=3600\r\n")
+          .append("Date: \r\n")
+          .append("Ext: \r\n")
+          .append("Location: ").append(getLocation()).append("\r\n");
+    }
+    message.append("Server: POSIX UPnP/1.0 YGLC/1\r\n")
+        .append("id: ").append(id).append("\r\n")
+        .append("model: ").append(model).append("\r\n")
+        .append("fw_ver: ").append(firmwareVersion).append("\r\n")
+        .append("support: ").append(String.join(" ", support)).append("\r\n");
+    for(String property : new String[]{"power", "bright", "color_mode", "ct", "rgb", "hue", "sat", "name"}) {
+      message.append(property).append(": ").append(properties.get(property)).append("\r\n");
+    }
+    return message.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  void received(ControlConnection connection, byte[] data, int offset, int length) {
+    received.incrementAndGet();
+    if(simulator.isLost()) {
+      dropped.incrementAndGet();
+      return;
+    }
+    Request request = Request.parse(data, offset, length);
+    if(request == null) {
+      return;
+    }
+    if(!connection.isMusic() && !acquire(connection)) {
+      rejected.incrementAndGet();
+      respond(connection, Json.error(request.getId(), QUOTA_EXCEEDED), null);
+      return;
+    }
+    Map<String, Object> changes = new LinkedHashMap<>();
+    byte[] response;
+    if(!support.contains(request.getMethod())) {
+      response = Json.error(request.getId(), NOT_SUPPORTED);
+    } else {
+      try {
+        response = Json.result(request.getId(), execute(request.getMethod(), request.getParams(), changes));
+      } catch(InvalidParamsException | ClassCastException | ArrayIndexOutOfBoundsException e) {
+        changes.clear();
+        response = Json.error(request.getId(), INVALID_PARAMS);
+      }
+    }
+    respond(connection.isMusic() ? null : connection, response, changes);
+  }
+
+  void closed(ControlConnection connection) {
+    if(connection == musicConnection) {
+      musicConnection = null;
+      Map<String, Object> changes = new LinkedHashMap<>();
+      changes.put("music_on", 0);
+      apply(changes);
+    } else if(connections.remove(connection)) {
+      connectionCount = connections.size();
+    }
+  }
+
+  private boolean acquire(ControlConnection connection) {
+    long now = System.nanoTime();
+    Quota connectionQuota = connection.getQuota();
+    return (connectionQuota == null || connectionQuota.tryAcquire(now)) && (quota == null || quota.tryAcquire(now));
+  }
+
+  /**
+   * Send the response and apply the state changes once the simulated latency has passed
+   */
+  private void respond(ControlConnection connection, byte[] response, Map<String, Object> changes) {
+    loop.schedule(() -> {
+      if(connection != null) {
+        connection.send(response);
+      }
+      if(changes != null) {
+        apply(changes);
+      }
+    }, simulator.nextLatency());
+  }
+
+  private void apply(Map<String, Object> changes) {
+    changes.entrySet().removeIf(change -> change.getValue().equals(properties.put(change.getKey(), change.getValue())));
+    if(changes.isEmpty()) {
+      return;
+    }
+    byte[] notification = Json.notification(changes);
+    for(ControlConnection connection : new ArrayList<>(connections)) {
+      connection.send(notification);
+    }
+  }
+
+  /**
+   * @return Result values of the command
+   */
+  private Object[] execute(String method, Object[] params, Map<String, Object> changes) throws InvalidParamsException {
+    String prefix = method.startsWith("bg_") ? "bg_" : "";
+    switch(method.substring(prefix.length())) {
+      case "get_prop":
+        Object[] values = new Object[params.length];
+        for(int i = 0; i < params.length; i++) {
+          Object value = properties.get(String.valueOf(params[i]));
+          values[i] = value == null ? "" : value.toString();
+        }
+        return values;
+      case "set_power":
+        changes.put(prefix + "power", onOff(params[0]));
+        break;
+      case "toggle":
+        changes.put(prefix + "power", "on".equals(properties.get(prefix + "power")) ? "off" : "on");
+        break;
+      case "dev_toggle":
+        changes.put("power", "on".equals(properties.get("power")) ? "off" : "on");
+        changes.put("bg_power", "on".equals(properties.get("bg_power")) ? "off" : "on");
+        break;
+      case "set_bright":
+        changes.put(prefix + "bright", range(params[0], 1, 100));
+        break;
+      case "set_ct_abx":
+        changes.put(prefix + "ct", range(params[0], 1700, 6500));
+        changes.put(colorMode(prefix), 2);
+        break;
+      case "set_rgb":
+        changes.put(prefix + "rgb", range(params[0], 0, 0xFFFFFF));
+        changes.put(colorMode(prefix), 1);
+        break;
+      case "set_hsv":
+        changes.put(prefix + "hue", range(params[0], 0, 359));
+        changes.put(prefix + "sat", range(params[1], 0, 100));
+        changes.put(colorMode(prefix), 3);
+        break;
+      case "adjust_bright":
+        changes.put(prefix + "bright", adjust(prefix + "bright", range(params[0], -100, 100), 1, 100));
+        break;
+      case "adjust_ct":
+        changes.put(prefix + "ct", adjust(prefix + "ct", range(params[0], -100, 100), 1700, 6500));
+        break;
+      case "adjust_color":
+        range(params[0], -100, 100);
+        break;
+      case "set_adjust":
+        setAdjust(prefix, String.valueOf(params[0]), String.valueOf(params[1]), changes);
+        break;
+      case "start_cf":
+        range(params[0], 0, Integer.MAX_VALUE);
+        range(params[1], 0, 2);
+        changes.put(prefix + "flowing", 1);
+        changes.put(prefix + "flow_params", String.valueOf(params[2]));
+        break;
+      case "stop_cf":
+        changes.put(prefix + "flowing", 0);
+        break;
+      case "set_scene":
+        setScene(prefix, params, changes);
+        break;
+      case "cron_add":
+        changes.put("delayoff", range(params[1], 1, 24 * 60));
+        break;
+      case "cron_get":
+        Integer delay = (Integer) properties.get("delayoff");
+        return delay == null || delay == 0 ? new Object[0] : new Object[]{Json.cron(delay)};
+      case "cron_del":
+        changes.put("delayoff", 0);
+        break;
+      case "set_name":
+        changes.put("name", String.valueOf(params[0]));
+        break;
+      case "set_music":
+        setMusic(params, changes);
+        break;
+      default:
+        // set_default and the rest of the supported methods only need to be acknowledged
+    }
+    return new Object[]{"ok"};
+  }
+
+  private void setAdjust(String prefix, String action, String property, Map<String, Object> changes) throws InvalidParamsException {
+    int step;
+    switch(action) {
+      case "increase":
+        step = 10;
+        break;
+      case "decrease":
+        step = -10;
+        break;
+      case "circle":
+        step = 0;
+        break;
+      default:
+        throw new InvalidParamsException();
+    }
+    switch(property) {
+      case "bright":
+        Integer bright = (Integer) properties.getOrDefault(prefix + "bright", 100);
+        changes.put(prefix + "bright", step == 0 ? bright % 100 + 1 : Math.max(1, Math.min(100, bright + step)));
+        break;
+      case "ct":
+        Integer ct = (Integer) properties.getOrDefault(prefix + "ct", 4000);
+        changes.put(prefix + "ct", step == 0 ? (ct >= 6500 ? 1700 : Math.min(6500, ct + 500))
+            : Math.max(1700, Math.min(6500, ct + step * 50)));
+        break;
+      case "color":
+        if(step != 0) {
+          throw new InvalidParamsException();
+        }
+        break;
+      default:
+        throw new InvalidParamsException();
+    }
+  }
+
+  private void setScene(String prefix, Object[] params, Map<String, Object> changes) throws InvalidParamsException {
+    switch(String.valueOf(params[0])) {
+      case "color":
+        changes.put(prefix + "rgb", range(params[1], 0, 0xFFFFFF));
+        changes.put(prefix + "bright", range(params[2], 1, 100));
+        changes.put(colorMode(prefix), 1);
+        break;
+      case "hsv":
+        changes.put(prefix + "hue", range(params[1], 0, 359));
+        changes.put(prefix + "sat", range(params[2], 0, 100));
+        changes.put(prefix + "bright", range(params[3], 1, 100));
+        changes.put(colorMode(prefix), 3);
+        break;
+      case "ct":
+        changes.put(prefix + "ct", range(params[1], 1700, 6500));
+        changes.put(prefix + "bright", range(params[2], 1, 100));
+        changes.put(colorMode(prefix), 2);
+        break;
+      case "cf":
+        changes.put(prefix + "flowing", 1);
+        changes.put(prefix + "flow_params", String.valueOf(params[3]));
+        break;
+      case "auto_delay_off":
+        changes.put(prefix + "bright", range(params[1], 1, 100));
+        changes.put("delayoff", range(params[2], 1, 24 * 60));
+        break;
+      default:
+        throw new InvalidParamsException();
+    }
+    changes.put(prefix + "power", "on");
+  }
+
+  private void setMusic(Object[] params, Map<String, Object> changes) throws InvalidParamsException {
+    int action = range(params[0], 0, 1);
+    if(musicConnection != null) {
+      ControlConnection previous = musicConnection;
+      musicConnection = null;
+      previous.close();
+    }
+    if(action == 0) {
+      changes.put("music_on", 0);
+      return;
+    }
+    InetSocketAddress server = new InetSocketAddress(String.valueOf(params[1]), range(params[2], 1, 65535));
+    ControlConnection connection;
+    try {
+      connection = new ControlConnection(this, SocketChannel.open(), null, true);
+    } catch(IOException e) {
+      throw new InvalidParamsException();
+    }
+    try {
+      // connect from the address of the device, so the music server can tell the devices apart
+      connection.connect(loop, new InetSocketAddress(address.getAddress(), 0), server);
+    } catch(IOException e) {
+      connection.close();
+      throw new InvalidParamsException();
+    }
+    musicConnection = connection;
+    changes.put("music_on", 1);
+  }
+
+  private String colorMode(String prefix) {
+    return prefix.isEmpty() ? "color_mode" : "bg_lmode";
+  }
+
+  private int adjust(String property, int percentage, int min, int max) {
+    Integer current = (Integer) properties.getOrDefault(property, min);
+    return Math.max(min, Math.min(max, current + (max - min) * percentage / 100));
+  }
+
+  private static String onOff(Object value) throws InvalidParamsException {
+    if(!"on".equals(value) && !"off".equals(value)) {
+      throw new InvalidParamsException();
+    }
+    return (String) value;
+  }
+
+  private static int range(Object value, int min, int max) throws InvalidParamsException {
+    if(!(value instanceof Integer) || (Integer) value < min || (Integer) value > max) {
+      throw new InvalidParamsException();
+    }
+    return (Integer) value;
+  }
+
+  @Override
+  public String toString() {
+    return id + " (" + model + ") at " + getLocation();
+  }
+}
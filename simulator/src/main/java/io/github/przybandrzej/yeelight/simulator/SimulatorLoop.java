@@ -0,0 +1,117 @@
+package io.github.przybandrzej.yeelight.simulator;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single selector thread driving the channels of many simulated devices. The state of a device is only touched from
+ * the loop it is pinned to, so devices need no locking.
+ */
+final class SimulatorLoop implements Runnable {
+
+  /**
+   * Handler of a registered channel, called on the loop thread when the channel is ready
+   */
+  interface Handler {
+    void handle(SelectionKey key);
+
+    void close();
+  }
+
+  private final Selector selector;
+  private final Thread thread;
+  private final ScheduledExecutorService timer;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private volatile boolean running = true;
+
+  SimulatorLoop(String name, ScheduledExecutorService timer) throws IOException {
+    this.selector = Selector.open();
+    this.timer = timer;
+    this.thread = new Thread(this, name);
+    this.thread.setDaemon(true);
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  void execute(Runnable task) {
+    tasks.add(task);
+    if(Thread.currentThread() != thread) {
+      selector.wakeup();
+    }
+  }
+
+  /**
+   * Run a task on the loop thread after a delay, right away if the delay is 0
+   */
+  void schedule(Runnable task, long delayNanos) {
+    if(delayNanos <= 0) {
+      execute(task);
+    } else {
+      timer.schedule(() -> execute(task), delayNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Must be called on the loop thread
+   */
+  SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws IOException {
+    return channel.register(selector, ops, handler);
+  }
+
+  void shutdown() {
+    running = false;
+    selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    while(running) {
+      try {
+        // tasks queued from the loop itself do not wake the selector up
+        if(tasks.isEmpty()) {
+          selector.select();
+        } else {
+          selector.selectNow();
+        }
+      } catch(IOException e) {
+        break;
+      }
+      runTasks();
+      Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+      while(keys.hasNext()) {
+        SelectionKey key = keys.next();
+        keys.remove();
+        if(key.isValid()) {
+          ((Handler) key.attachment()).handle(key);
+        }
+      }
+    }
+    for(SelectionKey key : selector.keys()) {
+      ((Handler) key.attachment()).close();
+    }
+    try {
+      selector.close();
+    } catch(IOException ignored) {
+    }
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while((task = tasks.poll()) != null) {
+      try {
+        task.run();
+      } catch(RuntimeException e) {
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package io.github.przybandrzej.yeelight.simulator;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Answers the SSDP searches for "wifi_bulb" with one response per simulated device and sends their advertisements
+ */
+final class SsdpResponder implements SimulatorLoop.Handler {
+
+  private static final int PACKET_SIZE = 2048;
+  private static final String SEARCH = "M-SEARCH";
+  private static final String SEARCH_TARGET = "wifi_bulb";
+
+  private final DeviceSimulator simulator;
+  private final SimulatorLoop loop;
+  private final List<SimulatedDevice> devices;
+  private final DatagramChannel channel;
+  private final InetSocketAddress group;
+  private final ByteBuffer packet = ByteBuffer.allocate(PACKET_SIZE);
+
+  /**
+   * @param bindAddress Address searches are received on
+   * @param multicast   Whether to join the SSDP multicast group on the interface of the bind address
+   */
+  SsdpResponder(DeviceSimulator simulator, SimulatorLoop loop, List<SimulatedDevice> devices,
+                InetSocketAddress bindAddress, boolean multicast) throws IOException {
+    this.simulator = simulator;
+    this.loop = loop;
+    this.devices = devices;
+    this.group = new InetSocketAddress(InetAddress.getByName(DeviceSimulator.SSDP_ADDRESS), DeviceSimulator.SSDP_PORT);
+    this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+    try {
+      channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+      channel.configureBlocking(false);
+      if(multicast) {
+        // bound to the wildcard address, the multicast datagrams are not addressed to the interface
+        channel.bind(new InetSocketAddress(bindAddress.getPort()));
+        NetworkInterface networkInterface = NetworkInterface.getByInetAddress(bindAddress.getAddress());
+        if(networkInterface == null) {
+          throw new IOException("No network interface with the address " + bindAddress.getAddress());
+        }
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+        channel.join(group.getAddress(), networkInterface);
+      } else {
+        channel.bind(bindAddress);
+      }
+    } catch(IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  int getPort() throws IOException {
+    return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+  }
+
+  void start() {
+    loop.execute(() -> {
+      try {
+        loop.register(channel, SelectionKey.OP_READ, this);
+      } catch(IOException e) {
+        close();
+      }
+    });
+  }
+
+  /**
+   * Send the advertisement of every device to the multicast group
+   */
+  void advertise() {
+    loop.execute(() -> {
+      for(SimulatedDevice device : devices) {
+        send(device.ssdpMessage(true), group);
+      }
+    });
+  }
+
+  @Override
+  public void handle(SelectionKey key) {
+    SocketAddress sender;
+    while(true) {
+      packet.clear();
+      try {
+        sender = channel.receive(packet);
+      } catch(IOException e) {
+        return;
+      }
+      if(sender == null) {
+        return;
+      }
+      packet.flip();
+      String message = new String(packet.array(), 0, packet.limit(), StandardCharsets.ISO_8859_1);
+      if(!message.startsWith(SEARCH) || !message.contains(SEARCH_TARGET)) {
+        // an advertisement or a search for another kind of service
+        continue;
+      }
+      SocketAddress searcher = sender;
+      for(SimulatedDevice device : devices) {
+        if(simulator.isLost()) {
+          continue;
+        }
+        loop.schedule(() -> send(device.ssdpMessage(false), searcher), simulator.nextLatency());
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      channel.close();
+    } catch(IOException ignored) {
+    }
+  }
+
+  private void send(byte[] message, SocketAddress target) {
+    try {
+      // a full socket buffer drops the datagram, like a congested network would
+      channel.send(ByteBuffer.wrap(message), target);
+    } catch(IOException ignored) {
+    }
+  }
+}